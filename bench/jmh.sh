@@ -0,0 +1,8 @@
+#!/bin/sh
+# Builds the interpreter and the JMH module, then runs the benchmarks.
+# Results go to jmh-result.json, extra arguments go to JMH (e.g. a benchmark regex or -p vm=true).
+set -e
+cd "$(dirname "$0")/.."
+mvn -B -q install
+mvn -B -q -f bench/jmh/pom.xml package
+java -jar bench/jmh/target/benchmarks.jar -rf json -rff jmh-result.json "$@"
@@ -0,0 +1,77 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scripts the benchmarks run. <br>
+ * The hand written ones live in resources/corpus, the big ones are generated
+ * from them, always the same way, so every run measures the same input.
+ */
+final class Corpus {
+    static final String[] SCRIPTS = {"fib.yai", "loop.yai", "strings.yai", "calls.yai"};
+
+    /** Reports errors by failing, a broken corpus must not be measured. */
+    static final ErrorReporter FAIL = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            throw new IllegalStateException("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            throw new IllegalStateException("[line " + line + "] " + message);
+        }
+    };
+
+    private Corpus() {}
+
+    static String load(String name) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+            if (in == null)
+                throw new IllegalArgumentException("No script " + name + " in the corpus");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The whole corpus repeated until it is at least that long.
+     * @param length in chars
+     * @return the source.
+     */
+    static String large(int length) {
+        StringBuilder source = new StringBuilder(length + 1024);
+        while (source.length() < length) {
+            for (String script : SCRIPTS)
+                source.append(load(script)).append('\n');
+        }
+        return source.toString();
+    }
+
+    /**
+     * An expression statement nesting groupings and every binary operator that many levels deep:
+     * {@code print (1 + (2 * (3 - ... ))) ;}.
+     * @param depth
+     * @return the source.
+     */
+    static String deepExpression(int depth) {
+        String[] operators = {" + ", " * ", " - ", " / ", " < ", " == "};
+        StringBuilder source = new StringBuilder("print ");
+        for (int i = 0; i < depth; i++)
+            source.append('(').append(i + 1).append(operators[i % operators.length]);
+        source.append('0');
+        for (int i = 0; i < depth; i++)
+            source.append(')');
+        return source.append(";\n").toString();
+    }
+
+    /**
+     * @param engine
+     * @return a context that discards the output and fails on errors.
+     */
+    static Context context(Engine engine) {
+        return engine.createContext(OutputStream.nullOutputStream(), FAIL);
+    }
+}
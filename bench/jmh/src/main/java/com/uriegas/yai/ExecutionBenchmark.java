@@ -0,0 +1,64 @@
+package com.uriegas.yai;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Runs the corpus scripts already prepared, so only execution is measured.
+ * Every invocation uses a fresh {@link Context}, like a host running a script per request.
+ * With {@code limited} the scripts run under fuel and time limits too high to be reached,
+ * which measures what checking them costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionBenchmark {
+    /** Tree-walking interpreter (with its JIT tier) or bytecode VM. */
+    @Param({"false", "true"})
+    boolean vm;
+    /** Without {@link Limits} or with limits that every script stays under. */
+    @Param({"false", "true"})
+    boolean limited;
+
+    private Engine engine;
+    private Program fib, loop, strings, calls, prints;
+
+    @Setup
+    public void setup() {
+        engine = new Engine(vm, Engine.CACHE_SIZE, limited ? new Limits(1L << 40, 3_600_000, Interpreter.MAX_DEPTH) : Limits.NONE);
+        fib = engine.prepare(Corpus.load("fib.yai"), Corpus.FAIL);
+        loop = engine.prepare(Corpus.load("loop.yai"), Corpus.FAIL);
+        strings = engine.prepare(Corpus.load("strings.yai"), Corpus.FAIL);
+        calls = engine.prepare(Corpus.load("calls.yai"), Corpus.FAIL);
+        prints = engine.prepare(Corpus.load("prints.yai"), Corpus.FAIL);
+    }
+
+    @Benchmark
+    public Context.Status fib() {
+        return Corpus.context(engine).eval(fib);
+    }
+
+    @Benchmark
+    public Context.Status numericLoop() {
+        return Corpus.context(engine).eval(loop);
+    }
+
+    @Benchmark
+    public Context.Status stringConcat() {
+        return Corpus.context(engine).eval(strings);
+    }
+
+    @Benchmark
+    public Context.Status callOverhead() {
+        return Corpus.context(engine).eval(calls);
+    }
+
+    /** Formats and encodes every line, the stream discards the bytes. */
+    @Benchmark
+    public Context.Status printLoop() {
+        return Corpus.context(engine).eval(prints);
+    }
+}
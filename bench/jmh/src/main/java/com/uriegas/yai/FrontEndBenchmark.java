@@ -0,0 +1,61 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Scanner and Parser on their own, and the whole front end as {@link Engine#prepare} runs it,
+ * from a String or streamed from a Reader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    /** Size of the source scanned, in chars. */
+    @Param({"1000000"})
+    int length;
+
+    /** Nesting of the parsed expression. */
+    @Param({"200"})
+    int depth;
+
+    private String large;
+    private String deep;
+    private Engine engine;
+
+    @Setup
+    public void setup() {
+        large = Corpus.large(length);
+        deep = Corpus.deepExpression(depth);
+        engine = new Engine(false, 0); //No cache, prepare runs every phase each time
+    }
+
+    @Benchmark
+    public int scanLarge() {
+        Scanner scanner = new Scanner(large, Corpus.FAIL);
+        int tokens = 0;
+        while (scanner.scan())
+            tokens += scanner.tokens.count;
+        return tokens;
+    }
+
+    @Benchmark
+    public List<Stmt> parseDeep() {
+        return new Parser(new Scanner(deep, Corpus.FAIL), Corpus.FAIL).parse(); //The expression is short, scanning is a small part
+    }
+
+    @Benchmark
+    public Program prepareLarge() {
+        return engine.prepare(large, Corpus.FAIL);
+    }
+
+    @Benchmark
+    public Program prepareLargeStreamed() throws IOException {
+        return engine.prepare(new StringReader(large), Corpus.FAIL);
+    }
+}
@@ -0,0 +1,236 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import static com.uriegas.yai.AstWriter.*;
+
+/**
+ * Loads programs written by {@link AstWriter}. <br>
+ * The file is memory mapped and decoded in a single pass: the constant tables are read
+ * once and the nodes are rebuilt with the Resolver's slots already in place,
+ * so loading costs about as much as reading the file.
+ */
+final class AstReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer buffer;
+    private String[] strings;
+    private double[] numbers;
+    private int line = 0; //Last line read
+
+    private AstReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reads the statements of a .yaic file.
+     * @param path
+     * @return the resolved and optimized statements.
+     * @throws IOException if the file can't be read or is not a valid .yaic file
+     */
+    static List<Stmt> read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return new AstReader(buffer).readProgram();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException(path + " is truncated or corrupt");
+        }
+    }
+
+    private List<Stmt> readProgram() throws IOException {
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a compiled YAI script");
+        int version = buffer.getShort();
+        if (version != VERSION)
+            throw new IOException("Compiled with format version " + version + ", expected " + VERSION);
+
+        strings = new String[count()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[count()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        numbers = new double[count()];
+        for (int i = 0; i < numbers.length; i++)
+            numbers[i] = Double.longBitsToDouble(buffer.getLong());
+
+        List<Stmt> statements = readStatements();
+        if (buffer.hasRemaining())
+            throw new IOException("Unexpected data after the program");
+        return statements;
+    }
+
+    // ==> Nodes
+    private List<Stmt> readStatements() throws IOException {
+        int count = count();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            statements.add(stmt());
+        return statements;
+    }
+
+    /**
+     * @return the statement or null for a missing optional one.
+     * @throws IOException
+     */
+    private Stmt stmt() throws IOException {
+        int tag = tag();
+        if (tag == NONE) return null;
+        int line = line();
+        Stmt stmt = stmt(tag);
+        stmt.line = line;
+        return stmt;
+    }
+
+    private Stmt stmt(int tag) throws IOException {
+        switch (tag) {
+            case BLOCK: {
+                int locals = varint();
+                Stmt.Block block = new Stmt.Block(readStatements());
+                block.locals = locals;
+                return block;
+            }
+            case EXPRESSION:
+                return new Stmt.Expression(expr());
+            case FUNCTION: {
+                Token name = token();
+                int slot = varint() - 1;
+                int locals = varint();
+                int arity = count();
+                List<Token> params = new ArrayList<>(arity);
+                for (int i = 0; i < arity; i++)
+                    params.add(token());
+                Stmt.Function function = new Stmt.Function(name, params, readStatements());
+                function.slot = slot;
+                function.locals = locals;
+                return function;
+            }
+            case IF:
+                return new Stmt.If(expr(), stmt(), stmt());
+            case PRINT:
+                return new Stmt.Print(expr());
+            case RETURN:
+                return new Stmt.Return(token(), expr());
+            case VAR: {
+                Token name = token();
+                int slot = varint() - 1;
+                Stmt.Var var = new Stmt.Var(name, expr());
+                var.slot = slot;
+                return var;
+            }
+            case WHILE:
+                return new Stmt.While(expr(), stmt());
+            default:
+                throw new IOException("Unknown statement tag " + tag);
+        }
+    }
+
+    /**
+     * @return the expression or null for a missing optional one.
+     * @throws IOException
+     */
+    private Expr expr() throws IOException {
+        int tag = tag();
+        switch (tag) {
+            case NONE:
+                return null;
+            case ASSIGN: {
+                Token name = token();
+                int depth = varint() - 1;
+                int slot = varint();
+                Expr.Assign assign = new Expr.Assign(name, expr());
+                assign.depth = depth;
+                assign.slot = slot;
+                return assign;
+            }
+            case BINARY:
+                return new Expr.Binary(expr(), token(), expr());
+            case CALL: {
+                Expr callee = expr();
+                Token paren = token();
+                int count = count();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                    arguments.add(expr());
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GROUPING:
+                return new Expr.Grouping(expr());
+            case LITERAL:
+                return new Expr.Literal(value());
+            case LOGICAL:
+                return new Expr.Logical(expr(), token(), expr());
+            case UNARY:
+                return new Expr.Unary(token(), expr());
+            case VARIABLE: {
+                Expr.Variable variable = new Expr.Variable(token());
+                variable.depth = varint() - 1;
+                variable.slot = varint();
+                return variable;
+            }
+            default:
+                throw new IOException("Unknown expression tag " + tag);
+        }
+    }
+
+    private Object value() throws IOException {
+        int tag = tag();
+        switch (tag) {
+            case NULL_VALUE:   return null;
+            case TRUE_VALUE:   return true;
+            case FALSE_VALUE:  return false;
+            case NUMBER_VALUE: return numbers[varint()];
+            case STRING_VALUE: return strings[varint()];
+            default:           throw new IOException("Unknown literal tag " + tag);
+        }
+    }
+
+    private Token token() {
+        TokenType type = TOKEN_TYPES[tag()];
+        int index = varint();
+        if (type == TokenType.IDENTIFIER) //Names are canonical, see Symbols
+            strings[index] = strings[index].intern();
+        return new Token(type, strings[index], null, line());
+    }
+
+    private int line() {
+        int delta = varint();
+        line += (delta >>> 1) ^ -(delta & 1);
+        return line;
+    }
+    // <== Nodes
+
+    // ==> Helper Methods
+    private int tag() {
+        return buffer.get() & 0xff;
+    }
+
+    /**
+     * Reads the size of a table or list, every element takes at least one byte.
+     * @return the size.
+     * @throws IOException if the file is too short to hold that many elements
+     */
+    private int count() throws IOException {
+        int count = varint();
+        if (count < 0 || count > buffer.remaining())
+            throw new IOException("Invalid length " + count);
+        return count;
+    }
+
+    private int varint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+    // <== Helper Methods
+}
@@ -0,0 +1,282 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes a resolved and optimized program in the binary .yaic format read by {@link AstReader}. <br>
+ * Layout: magic, version, the string table, the number table and then the statements
+ * in prefix order. Every node starts with a one byte tag, names and lexemes are indexes into
+ * the string table and statements and tokens keep their line, so runtime errors and
+ * profiles point at the same place.
+ * Integers are unsigned LEB128 varints, slots and depths are stored plus one so -1 fits,
+ * lines are stored as the zigzag encoded difference with the previous line written.
+ * The Resolver's annotations are part of the file, loading it skips the whole front end.
+ */
+final class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x59414943; //"YAIC"
+    static final int VERSION = 2; //Also covers TokenType's order, tokens are stored by ordinal
+
+    // ==> Tags
+    static final int NONE = 0; //Missing optional node (else branch, initializer...)
+    static final int BLOCK = 1, EXPRESSION = 2, FUNCTION = 3, IF = 4, PRINT = 5, RETURN = 6, VAR = 7, WHILE = 8;
+    static final int ASSIGN = 16, BINARY = 17, CALL = 18, GROUPING = 19, LITERAL = 20, LOGICAL = 21, UNARY = 22, VARIABLE = 23;
+    static final int NULL_VALUE = 0, TRUE_VALUE = 1, FALSE_VALUE = 2, NUMBER_VALUE = 3, STRING_VALUE = 4;
+    // <== Tags
+
+    private final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private final Map<Long, Integer> numbers = new LinkedHashMap<>(); //Keyed by bits so -0 and NaN survive
+    private int line = 0; //Last line written
+
+    private AstWriter() {}
+
+    /**
+     * Serializes a program.
+     * @param program
+     * @param out
+     * @throws IOException
+     */
+    static void write(Program program, OutputStream out) throws IOException {
+        AstWriter writer = new AstWriter();
+        writer.writeStatements(program.statements);
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        writeVarint(data, writer.strings.size());
+        for (String string : writer.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(data, bytes.length);
+            data.write(bytes);
+        }
+        writeVarint(data, writer.numbers.size());
+        for (long bits : writer.numbers.keySet())
+            data.writeLong(bits);
+        writer.nodes.writeTo(data);
+        data.flush();
+    }
+
+    // ==> Statements
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK, stmt);
+        varint(stmt.locals);
+        writeStatements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION, stmt);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION, stmt);
+        token(stmt.name);
+        varint(stmt.slot + 1);
+        varint(stmt.locals);
+        varint(stmt.params.size());
+        for (Token param : stmt.params)
+            token(param);
+        writeStatements(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF, stmt);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT, stmt);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN, stmt);
+        token(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR, stmt);
+        token(stmt.name);
+        varint(stmt.slot + 1);
+        write(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE, stmt);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        token(expr.name);
+        varint(expr.depth + 1);
+        varint(expr.slot);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        write(expr.left);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        write(expr.callee);
+        token(expr.paren);
+        varint(expr.arguments.size());
+        for (Expr argument : expr.arguments)
+            write(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        Object value = expr.value;
+        if (value == null) {
+            tag(NULL_VALUE);
+        } else if (value instanceof Boolean) {
+            tag((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+        } else if (value instanceof Double) {
+            tag(NUMBER_VALUE);
+            varint(numbers.computeIfAbsent(Double.doubleToRawLongBits((Double) value), bits -> numbers.size()));
+        } else {
+            tag(STRING_VALUE);
+            varint(string((String) value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        write(expr.left);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        token(expr.name);
+        varint(expr.depth + 1);
+        varint(expr.slot);
+        return null;
+    }
+    // <== Expressions
+
+    // ==> Helper Methods
+    private void writeStatements(List<Stmt> statements) {
+        varint(statements.size());
+        for (Stmt statement : statements)
+            write(statement);
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) tag(NONE);
+        else stmt.accept(this);
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) tag(NONE);
+        else expr.accept(this);
+    }
+
+    /**
+     * Tokens keep their type, lexeme and line, the literal of a token is never read after parsing.
+     * @param token
+     */
+    private void token(Token token) {
+        tag(token.type.ordinal());
+        varint(string(token.lexeme));
+        line(token.line);
+    }
+
+    private void line(int line) {
+        int delta = line - this.line;
+        varint((delta << 1) ^ (delta >> 31));
+        this.line = line;
+    }
+
+    /**
+     * Starts a statement: its tag and the line it starts on.
+     * @param tag
+     * @param stmt
+     */
+    private void tag(int tag, Stmt stmt) {
+        tag(tag);
+        line(stmt.line);
+    }
+
+    private int string(String value) {
+        return strings.computeIfAbsent(value, s -> strings.size());
+    }
+
+    private void tag(int tag) {
+        nodes.write(tag);
+    }
+
+    private void varint(int value) {
+        while ((value & ~0x7f) != 0) {
+            nodes.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        nodes.write(value);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    // <== Helper Methods
+}
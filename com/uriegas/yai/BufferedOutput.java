@@ -0,0 +1,55 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * The {@link OutputSink} of {@link OutputSink#writingTo}. <br>
+ * Like a {@link PrintStream}, it never throws: once the stream fails (a client that went
+ * away, a full disk) the rest of the output is dropped and the script keeps running.
+ */
+final class BufferedOutput implements OutputSink {
+    /** Characters buffered before they are encoded and written. */
+    static final int BUFFER_SIZE = Integer.getInteger("yai.output.buffer", 1 << 16);
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Writer writer;
+    private final char[] digits = new char[Numbers.MAX_LENGTH]; //Reused by every number printed
+    private boolean failed = false;
+
+    BufferedOutput(OutputStream out, Charset charset) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, charset), BUFFER_SIZE);
+    }
+
+    @Override
+    public void println(String line) {
+        if (failed) return;
+        try {
+            writer.write(line);
+            writer.write(NEWLINE);
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    @Override
+    public void println(double number) {
+        if (failed) return;
+        try {
+            writer.write(digits, 0, Numbers.format(number, digits));
+            writer.write(NEWLINE);
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (failed) return;
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import static com.uriegas.yai.OpCode.*;
+
+/**
+ * Compiles the AST into bytecode for the {@link VM}. <br>
+ * One compiler instance per function. Locals live in fixed slots at the bottom of
+ * the call frame, the operand stack sits on top of them, so leaving a scope
+ * only frees slot numbers at compile time and costs nothing at runtime.
+ * Scoping follows the {@link Resolver}: a function sees its own locals and the globals.
+ */
+final class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final CompiledFunction function;
+    private final Chunk chunk;
+    private final ErrorReporter reporter;
+    private final List<String> localNames = new ArrayList<>(); //Index = slot
+    private final List<Integer> localDepths = new ArrayList<>();
+    private int scopeDepth;
+    private int line = 1;
+    private int stackDepth = 0;
+
+    private BytecodeCompiler(CompiledFunction function, int scopeDepth, ErrorReporter reporter) {
+        this.function = function;
+        this.chunk = function.chunk;
+        this.scopeDepth = scopeDepth;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Compiles a program into the top-level script function.
+     * @param statements
+     * @param reporter receives the compile errors
+     * @return the script.
+     */
+    static CompiledFunction compile(List<Stmt> statements, ErrorReporter reporter) {
+        BytecodeCompiler compiler = new BytecodeCompiler(new CompiledFunction(null, 0), 0, reporter);
+        for (Stmt statement : statements)
+            compiler.compile(statement);
+        return compiler.finish();
+    }
+
+    private CompiledFunction finish() {
+        emit(NULL, 1);
+        emit(RETURN, -1);
+        chunk.seal();
+        return function;
+    }
+
+    // ==> Statements
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements)
+            compile(statement);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) { //Assignment as statement doesn't need its value
+            Expr.Assign assign = (Expr.Assign) stmt.expression;
+            int slot = resolveLocal(assign.name.lexeme);
+            if (slot >= 0) {
+                compile(assign.value);
+                line = assign.name.line;
+                emit(STORE_LOCAL, -1);
+                emitShort(slot);
+                return null;
+            }
+        }
+        compile(stmt.expression);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        BytecodeCompiler compiler = new BytecodeCompiler(new CompiledFunction(stmt.name.lexeme, stmt.params.size()), 1, reporter);
+        compiler.line = line;
+        for (Token param : stmt.params)
+            compiler.declareLocal(param.lexeme);
+        for (Stmt statement : stmt.body)
+            compiler.compile(statement);
+        CompiledFunction compiled = compiler.finish();
+
+        emitConstant(compiled);
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(POP_JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(JUMP, 0);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            compile(call.callee);
+            for (Expr argument : call.arguments)
+                compile(argument);
+            line = call.paren.line;
+            emit(TAIL_CALL, -call.arguments.size() - 1);
+            emitByte(call.arguments.size());
+            return null;
+        }
+        if (stmt.value != null)
+            compile(stmt.value);
+        else
+            emit(NULL, 1);
+        line = stmt.keyword.line;
+        emit(RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null)
+            compile(stmt.initializer);
+        else
+            emit(NULL, 1);
+        line = stmt.name.line;
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(POP_JUMP_IF_FALSE, -1);
+        compile(stmt.body);
+        if (stmt.line > 0) line = stmt.line; //Running out of fuel is reported on the loop
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name.lexeme);
+        if (slot >= 0) {
+            emit(SET_LOCAL, 0);
+            emitShort(slot);
+        } else {
+            emit(SET_GLOBAL, 0);
+            emitShort(chunk.addName(expr.name.lexeme));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case PLUS:          emit(ADD, -1); break;
+            case MINUS:         emit(SUBTRACT, -1); break;
+            case STAR:          emit(MULTIPLY, -1); break;
+            case SLASH:         emit(DIVIDE, -1); break;
+            case GREATER:       emit(GREATER, -1); break;
+            case GREATER_EQUAL: emit(GREATER_EQUAL, -1); break;
+            case LESS:          emit(LESS, -1); break;
+            case LESS_EQUAL:    emit(LESS_EQUAL, -1); break;
+            case BANG_EQUAL:    emit(NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL:   emit(EQUAL, -1); break;
+            default:
+                reporter.error(expr.operator, "Unknown binary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments)
+            compile(argument);
+        line = expr.paren.line;
+        emit(CALL, -expr.arguments.size());
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) emit(NULL, 1);
+        else if (Boolean.TRUE.equals(expr.value)) emit(TRUE, 1);
+        else if (Boolean.FALSE.equals(expr.value)) emit(FALSE, 1);
+        else emitConstant(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? JUMP_IF_TRUE : JUMP_IF_FALSE, 0);
+        emit(POP, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.BANG)
+            emit(NOT, 0);
+        else
+            emit(NEGATE, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name.lexeme);
+        if (slot >= 0) {
+            emit(GET_LOCAL, 1);
+            emitShort(slot);
+        } else {
+            emit(GET_GLOBAL, 1);
+            emitShort(chunk.addName(expr.name.lexeme));
+        }
+        return null;
+    }
+    // <== Expressions
+
+    // ==> Helper Methods
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopeDepth++;
+    }
+
+    private void endScope() {
+        scopeDepth--;
+        while (!localDepths.isEmpty() && localDepths.get(localDepths.size() - 1) > scopeDepth) {
+            localDepths.remove(localDepths.size() - 1);
+            localNames.remove(localNames.size() - 1);
+        }
+    }
+
+    /**
+     * Stores the value on top of the stack in a new variable.
+     * @param name
+     */
+    private void defineVariable(String name) {
+        if (scopeDepth == 0) {
+            emit(DEFINE_GLOBAL, -1);
+            emitShort(chunk.addName(name));
+        } else {
+            emit(STORE_LOCAL, -1);
+            emitShort(declareLocal(name));
+        }
+    }
+
+    /**
+     * Declares a local in the current scope, redeclaring reuses the slot.
+     * @param name
+     * @return the slot.
+     */
+    private int declareLocal(String name) {
+        for (int i = localNames.size() - 1; i >= 0 && localDepths.get(i) == scopeDepth; i--) {
+            if (localNames.get(i) == name) return i; //Names are symbols, see Symbols
+        }
+        localNames.add(name);
+        localDepths.add(scopeDepth);
+        if (localNames.size() > 0xFFFF)
+            reporter.error(line, "Too many local variables in function.");
+        function.locals = Math.max(function.locals, localNames.size());
+        return localNames.size() - 1;
+    }
+
+    private int resolveLocal(String name) {
+        for (int i = localNames.size() - 1; i >= 0; i--) {
+            if (localNames.get(i) == name) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Emits an instruction and keeps track of the operand stack size.
+     * @param op
+     * @param stackEffect how many values the instruction pushes (negative if it pops)
+     */
+    private void emit(byte op, int stackEffect) {
+        chunk.write(op, line);
+        stackDepth += stackEffect;
+        function.maxStack = Math.max(function.maxStack, stackDepth);
+    }
+
+    private void emitByte(int value) {
+        chunk.write((byte) value, line);
+    }
+
+    private void emitShort(int value) {
+        chunk.writeShort(value, line);
+    }
+
+    private void emitConstant(Object value) {
+        int index = chunk.addConstant(value);
+        if (index > 0xFFFF)
+            reporter.error(line, "Too many constants in one chunk.");
+        emit(CONSTANT, 1);
+        emitShort(index);
+    }
+
+    private int emitJump(byte op, int stackEffect) {
+        emit(op, stackEffect);
+        emitShort(0xFFFF);
+        return chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xFFFF)
+            reporter.error(line, "Too much code to jump over.");
+        chunk.code[offset] = (byte) (jump >> 8);
+        chunk.code[offset + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(LOOP, 0);
+        int offset = chunk.count - loopStart + 2;
+        if (offset > 0xFFFF)
+            reporter.error(line, "Loop body too large.");
+        emitShort(offset);
+    }
+    // <== Helper Methods
+}
@@ -0,0 +1,93 @@
+package com.uriegas.yai;
+
+import java.util.*;
+
+/**
+ * A compiled sequence of bytecode. <br>
+ * Holds the code, the constant pool and a run-length encoded line table
+ * (pairs of [first offset, line]) used only when reporting errors.
+ */
+final class Chunk {
+    byte[] code = new byte[64];
+    int count = 0;
+    Object[] constants;
+
+    private final List<Object> pool = new ArrayList<>();
+    private final Map<Object, Integer> poolIndex = new HashMap<>();
+    private final Map<String, Integer> nameIndex = new IdentityHashMap<>();
+    private int[] lines = new int[16];
+    private int lineCount = 0;
+
+    /**
+     * Appends a byte to the chunk.
+     * @param b
+     * @param line source line of the instruction
+     */
+    void write(byte b, int line) {
+        if (count == code.length)
+            code = Arrays.copyOf(code, count * 2);
+        if (lineCount == 0 || lines[lineCount - 1] != line) {
+            if (lineCount + 2 > lines.length)
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            lines[lineCount++] = count;
+            lines[lineCount++] = line;
+        }
+        code[count++] = b;
+    }
+
+    void writeShort(int value, int line) {
+        write((byte) (value >> 8), line);
+        write((byte) value, line);
+    }
+
+    /**
+     * Adds a value to the constant pool, equal strings and numbers are shared.
+     * @param value
+     * @return the index of the constant.
+     */
+    int addConstant(Object value) {
+        boolean shareable = value instanceof String || value instanceof Double;
+        if (shareable) {
+            Integer index = poolIndex.get(value);
+            if (index != null) return index;
+        }
+        pool.add(value);
+        if (shareable) poolIndex.put(value, pool.size() - 1);
+        return pool.size() - 1;
+    }
+
+    /**
+     * Adds the name of a global to the constant pool. The {@link VM} looks globals up by identity
+     * (names are symbols, see {@link Symbols}), so names are shared by identity and never with
+     * a string literal of the same text, which is a different String.
+     * @param name
+     * @return the index of the constant.
+     */
+    int addName(String name) {
+        Integer index = nameIndex.get(name);
+        if (index != null) return index;
+        pool.add(name);
+        nameIndex.put(name, pool.size() - 1);
+        return pool.size() - 1;
+    }
+
+    /**
+     * Freezes the constant pool and trims the code array.
+     */
+    void seal() {
+        constants = pool.toArray();
+        code = Arrays.copyOf(code, count);
+    }
+
+    /**
+     * Source line of the instruction at the given offset.
+     * @param offset
+     * @return the line.
+     */
+    int lineAt(int offset) {
+        int line = 0;
+        for (int i = 0; i < lineCount && lines[i] <= offset; i += 2)
+            line = lines[i + 1];
+        return line;
+    }
+}
@@ -0,0 +1,349 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Minimal writer for JVM class files, just what the {@link JitCompiler} needs. <br>
+ * Classes are emitted with version 49 so no StackMapTable has to be computed,
+ * the JVM verifies them by type inference instead.
+ */
+final class ClassFileWriter {
+    // ==> Opcodes
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+    static final int DLOAD = 0x18, ALOAD = 0x19, AALOAD = 0x32;
+    static final int DSTORE = 0x39, ASTORE = 0x3a, AASTORE = 0x53;
+    static final int POP = 0x57, POP2 = 0x58, DUP = 0x59;
+    static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, IXOR = 0x82;
+    static final int DCMPL = 0x97, DCMPG = 0x98;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    static final int IF_ACMPNE = 0xa6, GOTO = 0xa7;
+    static final int ARETURN = 0xb0, RETURN = 0xb1;
+    static final int GETFIELD = 0xb4, PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd, CHECKCAST = 0xc0, WIDE = 0xc4;
+    // <== Opcodes
+
+    static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+    private int fieldCount = 0;
+    private final List<Code> methods = new ArrayList<>();
+
+    /**
+     * @param name internal name of the class
+     * @param superName internal name of the super class
+     * @param interfaceNames internal names of the implemented interfaces
+     */
+    ClassFileWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++)
+            interfaces[i] = classRef(interfaceNames[i]);
+    }
+
+    // ==> Constant pool
+    int utf8(String value) {
+        return entry("U" + value, out -> { out.writeByte(1); out.writeUTF(value); }, 1);
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, out -> { out.writeByte(7); out.writeShort(name); }, 1);
+    }
+
+    int string(String value) {
+        int utf = utf8(value);
+        return entry("S" + value, out -> { out.writeByte(8); out.writeShort(utf); }, 1);
+    }
+
+    int intConstant(int value) {
+        return entry("I" + value, out -> { out.writeByte(3); out.writeInt(value); }, 1);
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, out -> { out.writeByte(6); out.writeLong(bits); }, 2);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int owningClass = classRef(owner);
+        int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12); out.writeShort(nameIndex); out.writeShort(descriptorIndex);
+        }, 1);
+        return entry(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag); out.writeShort(owningClass); out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, EntryWriter writer, int size) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = poolCount;
+        poolCount += size;
+        if (poolCount > 0xFFFF)
+            throw new UnsupportedOperationException("Constant pool too large");
+        poolIndex.put(key, index);
+        return index;
+    }
+    // <== Constant pool
+
+    void field(int access, String name, String descriptor) {
+        int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+        DataOutputStream out = new DataOutputStream(members);
+        try {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fieldCount++;
+    }
+
+    /**
+     * Starts a new method.
+     * @param access
+     * @param name
+     * @param descriptor
+     * @param argSlots local variable slots used by the receiver and the arguments
+     * @return the code builder of the method.
+     */
+    Code method(int access, String name, String descriptor, int argSlots) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), argSlots);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        int codeAttribute = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) out.writeShort(i);
+            out.writeShort(fieldCount);
+            members.writeTo(out);
+            out.writeShort(methods.size());
+            for (Code method : methods)
+                method.writeTo(out, codeAttribute);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Jump target, forward references are patched when the label is placed.
+     */
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> fixups = new ArrayList<>(); //Pairs of [instruction start, operand offset]
+    }
+
+    /**
+     * Bytecode of one method. Keeps track of the operand stack depth and the locals used.
+     */
+    static final class Code {
+        private final int access, name, descriptor;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0, maxStack = 0, maxLocals;
+
+        private Code(int access, int name, int descriptor, int argSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argSlots;
+        }
+
+        /**
+         * Reserves fresh local variable slots.
+         * @param size 1 for references, 2 for doubles
+         * @return the first slot.
+         */
+        int newLocal(int size) {
+            int slot = maxLocals;
+            maxLocals += size;
+            if (maxLocals > 0xFFFF)
+                throw new UnsupportedOperationException("Too many locals");
+            return slot;
+        }
+
+        /**
+         * Emits an instruction without operands.
+         * @param opcode
+         * @param stackEffect
+         */
+        void op(int opcode, int stackEffect) {
+            put(opcode);
+            adjust(stackEffect);
+            if (opcode == ARETURN || opcode == RETURN)
+                stack = 0; //What follows is unreachable until a label is placed
+        }
+
+        void op1(int opcode, int operand, int stackEffect) {
+            put(opcode);
+            put(operand);
+            adjust(stackEffect);
+        }
+
+        void op2(int opcode, int operand, int stackEffect) {
+            put(opcode);
+            put(operand >> 8);
+            put(operand);
+            adjust(stackEffect);
+        }
+
+        void invoke(int opcode, int methodRef, int stackEffect) {
+            op2(opcode, methodRef, stackEffect);
+        }
+
+        void ldc(int index) {
+            if (index < 256) op1(LDC, index, 1);
+            else op2(LDC_W, index, 1);
+        }
+
+        void ldc2(int index) {
+            op2(LDC2_W, index, 2);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) op(ICONST_0 + value, 1);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) op1(BIPUSH, value, 1);
+            else op2(SIPUSH, value, 1);
+        }
+
+        void load(int opcode, int slot) {
+            local(opcode, slot, opcode == DLOAD ? 2 : 1);
+        }
+
+        void store(int opcode, int slot) {
+            local(opcode, slot, opcode == DSTORE ? -2 : -1);
+        }
+
+        private void local(int opcode, int slot, int stackEffect) {
+            if (slot < 256) {
+                op1(opcode, slot, stackEffect);
+            } else {
+                put(WIDE);
+                op2(opcode, slot, stackEffect);
+            }
+        }
+
+        /**
+         * Emits a branch to a label.
+         * @param opcode
+         * @param target
+         * @param stackEffect
+         */
+        void jump(int opcode, Label target, int stackEffect) {
+            int start = length;
+            put(opcode);
+            adjust(stackEffect);
+            target.stack = stack;
+            if (target.position >= 0) {
+                putOffset(target.position - start);
+            } else {
+                target.fixups.add(start);
+                target.fixups.add(length);
+                put(0);
+                put(0);
+            }
+            if (opcode == GOTO)
+                stack = 0;
+        }
+
+        void place(Label label) {
+            label.position = length;
+            if (label.stack >= 0)
+                stack = label.stack;
+            label.stack = stack;
+            for (int i = 0; i < label.fixups.size(); i += 2) {
+                int start = label.fixups.get(i), at = label.fixups.get(i + 1);
+                int offset = length - start;
+                checkOffset(offset);
+                code[at] = (byte) (offset >> 8);
+                code[at + 1] = (byte) offset;
+            }
+        }
+
+        private void putOffset(int offset) {
+            checkOffset(offset);
+            put(offset >> 8);
+            put(offset);
+        }
+
+        private void checkOffset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new UnsupportedOperationException("Branch too far");
+        }
+
+        private void adjust(int stackEffect) {
+            stack += stackEffect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void put(int b) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        private void writeTo(DataOutputStream out, int codeAttribute) throws IOException {
+            if (length > 0xFFFF)
+                throw new UnsupportedOperationException("Method too large");
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); //Exception table
+            out.writeShort(0); //Attributes
+        }
+    }
+}
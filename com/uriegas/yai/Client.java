@@ -0,0 +1,53 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Thin client of a {@link Server}: sends the path of a script and copies the output
+ * the server streams back to this process' stdout and stderr. <br>
+ * It only loads the socket classes, the interpreter stays warm in the server.
+ */
+final class Client {
+    private Client() {}
+
+    /**
+     * Runs a script on the server.
+     * @param socket
+     * @param script
+     * @return the exit status of the script.
+     * @throws IOException if the server can't be reached or hangs up early
+     */
+    static int run(Path socket, Path script) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            byte[] name = script.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+            request.writeInt(name.length);
+            request.write(name);
+            request.flush();
+
+            DataInputStream frames = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int kind = frames.readByte();
+                int length = frames.readInt();
+                if (kind == Server.EXIT) {
+                    System.out.flush();
+                    return length; //The exit status
+                }
+                PrintStream target = kind == Server.ERR ? System.err : System.out;
+                if (kind == Server.ERR) System.out.flush(); //Keep the order the script printed in
+                while (length > 0) {
+                    int read = Math.min(length, buffer.length);
+                    frames.readFully(buffer, 0, read);
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                if (kind == Server.ERR) System.err.flush();
+            }
+        }
+    }
+}
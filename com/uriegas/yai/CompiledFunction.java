@@ -0,0 +1,23 @@
+package com.uriegas.yai;
+
+/**
+ * A function compiled to bytecode, the {@link VM} counterpart of {@link YaiFunction}.
+ */
+final class CompiledFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int locals; //Number of local slots (params included)
+    int maxStack; //Deepest the operand stack gets, above the locals
+
+    CompiledFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<function " + name + ">";
+    }
+}
@@ -0,0 +1,174 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Isolated state to run scripts in: globals, output and errors. <br>
+ * Evaluating several sources in the same context works like typing them in the REPL,
+ * later sources see the globals defined by earlier ones. <br>
+ * A context must only be used by one thread at a time, separate contexts don't share
+ * any mutable state and can run in parallel.
+ */
+public final class Context {
+    /**
+     * Outcome of an evaluation.
+     */
+    public enum Status { OK, COMPILE_ERROR, RUNTIME_ERROR }
+
+    private final Engine engine;
+    private final OutputSink out;
+    private final Errors errors;
+    final Interpreter interpreter; //Null when the engine uses the VM
+    private final VM vm;
+
+    Context(Engine engine, OutputSink out, ErrorReporter reporter) {
+        this.engine = engine;
+        this.out = out;
+        this.errors = new Errors(reporter, out);
+        if (engine.usesVm()) {
+            this.vm = new VM(out, errors, engine.limits());
+            this.interpreter = null;
+        } else {
+            this.interpreter = new Interpreter(out, errors, engine.limits());
+            this.vm = null;
+        }
+    }
+
+    /**
+     * Prepares (or takes from the engine's cache) and runs a script.
+     * @param source
+     * @return how it went, the details go to the context's {@link ErrorReporter}.
+     */
+    public Status eval(String source) {
+        errors.reset();
+        Program program = engine.prepare(source, errors);
+        if (program == null) return Status.COMPILE_ERROR;
+        return eval(program);
+    }
+
+    /**
+     * Runs a program prepared by this context's engine, without scanning or parsing it again.
+     * @param program
+     * @return OK or RUNTIME_ERROR, the details go to the context's {@link ErrorReporter}.
+     */
+    public Status eval(Program program) {
+        errors.reset();
+        Events.Script event = new Events.Script();
+        event.begin();
+        long start = System.nanoTime();
+        if (vm != null) {
+            if (program.script == null)
+                throw new IllegalArgumentException("Program was not prepared for the VM");
+            vm.interpret(program.script);
+        } else {
+            interpreter.slowCalls = Events.slowCallsEnabled();
+            interpreter.interpret(program.statements);
+        }
+        out.flush();
+        Status status = errors.hadRuntimeError ? Status.RUNTIME_ERROR : Status.OK;
+        record(System.nanoTime() - start, status, event);
+        return status;
+    }
+
+    /**
+     * Adds what the script did to the {@link Metrics} and ends its JFR event.
+     * @param nanos
+     * @param status
+     * @param event
+     */
+    private void record(long nanos, Status status, Events.Script event) {
+        long statements = 0, calls, environments = 0;
+        if (vm != null) {
+            calls = vm.calls;
+            vm.calls = 0;
+        } else {
+            statements = interpreter.statements;
+            calls = interpreter.calls;
+            environments = interpreter.environments;
+            interpreter.statements = interpreter.calls = interpreter.environments = 0;
+        }
+        Metrics.INSTANCE.ran(nanos, statements, calls, environments, status == Status.RUNTIME_ERROR);
+        event.end();
+        if (event.shouldCommit()) {
+            event.status = status.name();
+            event.statements = statements;
+            event.calls = calls;
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes out what the scripts printed and is still buffered.
+     * Evaluations already flush when they end, this is for hosts that print between them.
+     */
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * Counts the strings and environments the context can still reach, see {@link Limits}.
+     * @return approximate bytes held.
+     */
+    public long memoryUsage() {
+        return vm != null ? vm.memory.used() : interpreter.memory.used();
+    }
+
+    /**
+     * @return approximate most bytes the context has held at once, garbage not recounted yet included.
+     */
+    public long peakMemoryUsage() {
+        return vm != null ? vm.memory.peak() : interpreter.memory.peak();
+    }
+
+    /**
+     * Starts profiling the scripts evaluated from now on.
+     * @return the profiler, to print its report when done.
+     */
+    Profiler profile() {
+        if (interpreter == null)
+            throw new IllegalStateException("Profiling needs the tree-walking interpreter");
+        if (interpreter.profiler == null)
+            interpreter.profiler = new Profiler();
+        return interpreter.profiler;
+    }
+
+    /**
+     * Forwards errors to the host's reporter, remembering if there were any.
+     * The output printed before an error is flushed first, so it still comes first.
+     */
+    static final class Errors implements ErrorReporter {
+        private final ErrorReporter reporter;
+        private final OutputSink out; //Null when nothing runs, like while preparing
+        boolean hadError = false;
+        boolean hadRuntimeError = false;
+
+        Errors(ErrorReporter reporter) {
+            this(reporter, null);
+        }
+
+        Errors(ErrorReporter reporter, OutputSink out) {
+            this.reporter = reporter;
+            this.out = out;
+        }
+
+        void reset() {
+            hadError = false;
+            hadRuntimeError = false;
+        }
+
+        @Override
+        public void error(int line, String where, String message) {
+            hadError = true;
+            if (out != null) out.flush();
+            reporter.error(line, where, message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            hadRuntimeError = true;
+            if (out != null) out.flush();
+            reporter.runtimeError(line, message);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Entry point for programs embedding YAI. <br>
+ * An engine only holds configuration, so it can be shared by every thread of a host.
+ * Scripts run in {@link Context}s: each one owns its interpreter, globals, output and
+ * errors, so different contexts can evaluate scripts on different threads at the same time. <br>
+ * Scripts are prepared once into {@link Program}s and kept in a cache shared by all the
+ * contexts of the engine, running the same source again skips the whole front end. <br>
+ * Every script run by its contexts is bounded by the engine's {@link Limits}.
+ */
+public final class Engine {
+    /** Number of programs an engine keeps by default, 0 disables the cache. */
+    static final int CACHE_SIZE = Integer.getInteger("yai.cache.size", 256);
+    /** Bytes of source the cache of an engine keeps at most, see {@link ProgramCache}. */
+    static final long CACHE_BYTES = Long.getLong("yai.cache.bytes", 64L << 20);
+
+    private final boolean vm;
+    private final ProgramCache cache;
+    private final Limits limits;
+
+    /**
+     * Engine running scripts with the tree-walking {@link Interpreter}.
+     */
+    public Engine() {
+        this(false);
+    }
+
+    /**
+     * @param vm true to compile scripts to bytecode and run them on the {@link VM}
+     */
+    public Engine(boolean vm) {
+        this(vm, CACHE_SIZE);
+    }
+
+    /**
+     * @param vm true to compile scripts to bytecode and run them on the {@link VM}
+     * @param cacheSize maximum number of prepared programs kept, 0 disables the cache
+     */
+    public Engine(boolean vm, int cacheSize) {
+        this(vm, cacheSize, Limits.DEFAULT);
+    }
+
+    /**
+     * @param vm true to compile scripts to bytecode and run them on the {@link VM}
+     * @param cacheSize maximum number of prepared programs kept, 0 disables the cache
+     * @param limits bounds of every script run by the contexts of this engine
+     */
+    public Engine(boolean vm, int cacheSize, Limits limits) {
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Negative cache size: " + cacheSize);
+        this.vm = vm;
+        this.cache = new ProgramCache(cacheSize, CACHE_BYTES);
+        this.limits = Objects.requireNonNull(limits);
+    }
+
+    /**
+     * Scans, parses, resolves and optimizes a script, or takes it from the cache
+     * if the same source was prepared before. Only programs without errors are cached.
+     * @param source
+     * @param errors receives the compile errors
+     * @return the program or null if the source has errors.
+     */
+    public Program prepare(String source, ErrorReporter errors) {
+        Program program = cache.get(source);
+        if (program != null) return program;
+
+        Context.Errors reporter = new Context.Errors(errors);
+        program = prepare(new Scanner(source, reporter), reporter);
+        return program == null ? null : cache.put(source, program);
+    }
+
+    /**
+     * Prepares a script read as it is scanned, so its source is never held whole:
+     * a large generated script only needs memory for its tree. <br>
+     * Streamed scripts are not cached, the cache is keyed by the whole source.
+     * @param source read to the end, not closed
+     * @param errors receives the compile errors
+     * @return the program or null if the source has errors.
+     * @throws IOException if the source can't be read
+     */
+    public Program prepare(Reader source, ErrorReporter errors) throws IOException {
+        Context.Errors reporter = new Context.Errors(errors);
+        try {
+            return prepare(new Scanner(source, reporter), reporter);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Program prepare(Scanner scanner, Context.Errors reporter) {
+        Events.Parse event = new Events.Parse();
+        event.begin();
+        long start = System.nanoTime();
+        List<Stmt> statements = parse(scanner, reporter);
+        Metrics.INSTANCE.parsed(System.nanoTime() - start, statements == null);
+        event.end();
+        if (event.shouldCommit()) {
+            event.chars = scanner.position();
+            event.failed = statements == null;
+            event.commit();
+        }
+        if (statements == null) return null;
+        return program(statements, reporter);
+    }
+
+    /**
+     * Runs the front end, the parser pulls the tokens from the scanner.
+     * @param scanner
+     * @param reporter
+     * @return the resolved and optimized statements or null if there were errors.
+     */
+    private static List<Stmt> parse(Scanner scanner, Context.Errors reporter) {
+        List<Stmt> statements = new Parser(scanner, reporter).parse();
+        if (reporter.hadError) return null;
+        new Resolver(reporter).resolve(statements);
+        if (reporter.hadError) return null;
+        return Optimizer.optimize(statements);
+    }
+
+    /**
+     * Loads a program compiled to a .yaic file with {@link Program#write}.
+     * The file already holds the resolved and optimized tree, nothing is scanned or parsed.
+     * @param path
+     * @param errors receives the errors of compiling the program to bytecode
+     * @return the program or null if it couldn't be compiled for the VM.
+     * @throws IOException if the file can't be read or is not a valid .yaic file
+     */
+    public Program load(Path path, ErrorReporter errors) throws IOException {
+        Context.Errors reporter = new Context.Errors(errors);
+        return program(AstReader.read(path), reporter);
+    }
+
+    /**
+     * Wraps resolved and optimized statements, compiling them to bytecode if the engine runs the VM
+     * or numbering the {@link Sites} the interpreter caches otherwise.
+     * @param statements
+     * @param reporter
+     * @return the program or null if there were errors.
+     */
+    private Program program(List<Stmt> statements, Context.Errors reporter) {
+        CompiledFunction script = null;
+        if (vm) {
+            script = BytecodeCompiler.compile(statements, reporter);
+            if (reporter.hadError) return null;
+        } else {
+            Sites.number(statements);
+        }
+        return new Program(statements, script);
+    }
+
+    /**
+     * Creates a context printing to the standard output and error streams.
+     * @return the context.
+     */
+    public Context createContext() {
+        return createContext(System.out, ErrorReporter.printingTo(System.err));
+    }
+
+    /**
+     * Creates a context whose output is buffered into a stream, see {@link OutputSink#writingTo}.
+     * @param out where print writes
+     * @param errors receives the errors of the scripts run in the context
+     * @return the context.
+     */
+    public Context createContext(OutputStream out, ErrorReporter errors) {
+        return createContext(OutputSink.writingTo(out), errors);
+    }
+
+    /**
+     * Creates a context.
+     * @param out receives what print writes
+     * @param errors receives the errors of the scripts run in the context
+     * @return the context.
+     */
+    public Context createContext(OutputSink out, ErrorReporter errors) {
+        return new Context(this, out, errors);
+    }
+
+    boolean usesVm() {
+        return vm;
+    }
+
+    Limits limits() {
+        return limits;
+    }
+}
@@ -2,40 +2,171 @@ package com.uriegas.yai;
 
 import java.util.*;
 
+/**
+ * Storage for variables. <br>
+ * The global environment keeps its variables in a map (they can be defined at any time),
+ * local environments are array backed and indexed by the slots computed by the {@link Resolver}. <br>
+ * Global names are symbols, canonical Strings (see {@link Symbols}), so the map
+ * compares them by identity instead of hashing and comparing their characters.
+ * Names from tokens are symbols already, a name given as a String is interned.
+ */
 public class Environment {
+    private static final Object UNBOXED = new Object(); //Marks a slot whose value lives in numbers
+
     private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Global> values;
+    private final Object[] slots;
+    private double[] numbers; //Unboxed numbers, allocated on the first numeric store
+    Environment caller; //Environment that was running when this one was entered, for the Memory recount
 
+    /**
+     * Global environment.
+     */
     public Environment() {
         this.enclosing = null;
+        this.values = new IdentityHashMap<>();
+        this.slots = null;
     }
 
-    public Environment(Environment enclosing) {
+    /**
+     * Local environment.
+     * @param enclosing
+     * @param size number of slots
+     */
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[size];
+    }
+
+    /**
+     * Binding of a global variable. Defining a name again reuses its binding,
+     * so call sites can keep a reference to it instead of hashing the name every time.
+     */
+    static final class Global {
+        Object value;
+
+        private Global() {}
     }
 
+    /**
+     * @param name interned here, the map compares names by identity
+     * @param value
+     */
     public void define(String name, Object value) {
-        values.put(name, value);
+        bind(name.intern(), value);
+    }
+
+    /**
+     * Defines the global declared with that name.
+     * @param name its lexeme is already a symbol, tokens are only made by the scanner and {@link AstReader}
+     * @param value
+     */
+    void define(Token name, Object value) {
+        bind(name.lexeme, value);
+    }
+
+    private void bind(String symbol, Object value) {
+        Global global = values.get(symbol);
+        if (global == null) {
+            global = new Global();
+            values.put(symbol, global);
+        }
+        global.value = value;
     }
 
     public Object get(Token name) {
-        if(values.containsKey(name.lexeme))
-            return values.get(name.lexeme);
-        if(enclosing != null)
-            return enclosing.get(name);
-        throw new RuntimeException("Variable " + name.lexeme + " not found");
+        return global(name).value;
     }
 
     public void assign(Token name, Object value) {
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
+        global(name).value = value;
+    }
+
+    /**
+     * Finds the binding of a defined global.
+     * @param name
+     * @return the binding.
+     */
+    Global global(Token name) {
+        Global global = values.get(name.lexeme);
+        if (global != null)
+            return global;
+        if (enclosing != null)
+            return enclosing.global(name);
+        throw new RuntimeError(name, "Variable " + name.lexeme + " not found");
+    }
+
+    // ==> Slot access
+    public void defineAt(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    public Object getAt(int depth, int slot) {
+        Environment environment = ancestor(depth);
+        Object value = environment.slots[slot];
+        if (value == UNBOXED) { //Box once, later reads reuse it
+            value = environment.numbers[slot];
+            environment.slots[slot] = value;
         }
-        if(enclosing != null){
-            enclosing.assign(name, value);
+        return value;
+    }
+
+    public void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    /**
+     * Stores a number without boxing it.
+     * @param slot
+     * @param value
+     */
+    public void setNumberAt(int slot, double value) {
+        if (numbers == null)
+            numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = UNBOXED;
+    }
+
+    public boolean isNumber(int slot) {
+        Object value = slots[slot];
+        return value == UNBOXED || value instanceof Double;
+    }
+
+    /**
+     * Reads a slot known to hold a number (see {@link #isNumber}).
+     * @param slot
+     * @return the number.
+     */
+    public double numberAt(int slot) {
+        Object value = slots[slot];
+        return value == UNBOXED ? numbers[slot] : (double) value;
+    }
+
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++)
+            environment = environment.enclosing;
+        return environment;
+    }
+
+    int size() {
+        return slots.length;
+    }
+    // <== Slot access
+
+    /**
+     * Counts this environment and its values as reachable.
+     * @param memory
+     */
+    void retain(Memory memory) {
+        if (values != null) {
+            for (Global global : values.values())
+                memory.retain(global.value);
             return;
         }
-        else //Variable not found
-            throw new RuntimeException("Variable " + name.lexeme + " not found");
+        memory.retainEnvironment(slots.length);
+        for (Object value : slots)
+            memory.retain(value);
     }
 }
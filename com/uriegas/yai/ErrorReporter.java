@@ -0,0 +1,55 @@
+package com.uriegas.yai;
+
+import java.io.*;
+
+/**
+ * Receives the errors found while running a script. <br>
+ * Every {@link Context} has its own, so scripts running in parallel
+ * don't mix up their errors.
+ */
+public interface ErrorReporter {
+    /**
+     * An error found before running: scanning, parsing or resolving.
+     * @param line
+     * @param where location inside the line, like " at 'x'" (may be empty)
+     * @param message
+     */
+    void error(int line, String where, String message);
+
+    /**
+     * An error that stopped a running script.
+     * @param line
+     * @param message
+     */
+    void runtimeError(int line, String message);
+
+    default void error(int line, String message) {
+        error(line, "", message);
+    }
+
+    default void error(Token token, String message) {
+        if (token.type == TokenType.EOF)
+            error(token.line, " at end", message);
+        else
+            error(token.line, " at '" + token.lexeme + "'", message);
+    }
+
+    /**
+     * Reporter printing the errors like the command line does.
+     * @param err
+     * @return the reporter.
+     */
+    static ErrorReporter printingTo(PrintStream err) {
+        return new ErrorReporter() {
+            @Override
+            public void error(int line, String where, String message) {
+                err.println("[line " + line + "] Error" + where + ": " + message);
+            }
+
+            @Override
+            public void runtimeError(int line, String message) {
+                err.println(message + "\n[line " + line + "]");
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package com.uriegas.yai;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder events, so YAI shows up in the same recordings as GC and CPU samples. <br>
+ * Events only cost something while a recording has them enabled:
+ * the interpreter checks {@link #slowCallsEnabled} once per script, not once per call.
+ */
+final class Events {
+    private static final EventType SLOW_CALL = EventType.getEventType(SlowCall.class);
+
+    private Events() {}
+
+    @Name("com.uriegas.yai.Script")
+    @Label("Script")
+    @Category("YAI")
+    @Description("A script run by a context, from start to end")
+    static final class Script extends Event {
+        @Label("Status")
+        String status;
+
+        @Label("Statements Executed")
+        long statements;
+
+        @Label("Function Calls")
+        long calls;
+    }
+
+    @Name("com.uriegas.yai.Parse")
+    @Label("Parse")
+    @Category("YAI")
+    @Description("Scanning, parsing, resolving and optimizing a source that wasn't cached")
+    static final class Parse extends Event {
+        @Label("Source Chars")
+        @Description("Length of the source in chars, what the scanner reads, not its size in bytes")
+        long chars;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("com.uriegas.yai.SlowCall")
+    @Label("Slow Function Call")
+    @Category("YAI")
+    @Description("A call of a YAI function that took longer than the threshold, callees included")
+    @Threshold("10 ms")
+    static final class SlowCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    /**
+     * @return true if a recording wants slow call events, calls are only timed then.
+     */
+    static boolean slowCallsEnabled() {
+        return SLOW_CALL.isEnabled();
+    }
+
+    /**
+     * Starts timing a call.
+     * @return the event to pass to {@link #endCall}.
+     */
+    static SlowCall startCall() {
+        SlowCall event = new SlowCall();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Emits the event if the call took longer than the recording's threshold.
+     * @param event
+     * @param callee
+     * @param paren token of the call site
+     */
+    static void endCall(SlowCall event, YaiCallable callee, Token paren) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = callee.toString();
+            event.line = paren.line;
+            event.commit();
+        }
+    }
+}
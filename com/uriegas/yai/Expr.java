@@ -17,11 +17,24 @@ abstract class Expr {
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
     }
+
+    /** True if the expression can only evaluate to a number (or fail), set by the constructors. */
+    boolean numeric = false;
+
+    /**
+     * What the interpreter has seen a node do so far. Nodes start UNINITIALIZED, specialize on
+     * their first execution and fall back to GENERIC for good once a guard fails.
+     */
+    enum Feedback { UNINITIALIZED, NUMBER, STRING, GENERIC }
     
     // ==> Expression classes
     static class Assign extends Expr {
         final Token name;
         final Expr value;
+        int depth = -1; //Set by the Resolver, -1 means global
+        int slot;
+        Sites sites; //Numbering of a global's node, the Interpreter caches its binding per context
+        int site;
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -36,10 +49,21 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        Feedback feedback = Feedback.UNINITIALIZED; //Operand types seen by a dynamic +
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
             this.right = right;
+            switch (operator.type) {
+                case MINUS: case STAR: case SLASH:
+                    this.numeric = true;
+                    break;
+                case PLUS: //A number on either side rules out string concatenation
+                    this.numeric = left.numeric || right.numeric;
+                    break;
+                default:
+                    break;
+            }
         }
         @Override
         <R> R accept(Visitor<R> visitor) {
@@ -51,6 +75,8 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        Sites sites; //Numbering of the node, the Interpreter keeps its inline cache per context
+        int site;
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
             this.paren = paren;
@@ -66,6 +92,7 @@ abstract class Expr {
         final Expr expression;
         Grouping(Expr expression) {
             this.expression = expression;
+            this.numeric = expression.numeric;
         }
         @Override
         <R> R accept(Visitor<R> visitor) {
@@ -77,6 +104,7 @@ abstract class Expr {
         final Object value;
         Literal(Object value) {
             this.value = value;
+            this.numeric = value instanceof Double;
         }
         @Override
         <R> R accept(Visitor<R> visitor) {
@@ -105,6 +133,7 @@ abstract class Expr {
         Unary(Token operator, Expr right) {
             this.operator = operator;
             this.right = right;
+            this.numeric = operator.type == TokenType.MINUS;
         }
         @Override
         <R> R accept(Visitor<R> visitor) {
@@ -114,6 +143,10 @@ abstract class Expr {
 
     static class Variable extends Expr {
         final Token name;
+        int depth = -1; //Set by the Resolver, -1 means global
+        int slot;
+        Sites sites; //Numbering of a global's node, the Interpreter caches its binding per context
+        int site;
         Variable(Token name) {
             this.name = name;
         }
@@ -0,0 +1,526 @@
+package com.uriegas.yai;
+
+import java.util.*;
+
+/**
+ * Runs the deep calls of the tree {@link Interpreter} with their frames on the heap. <br>
+ * The interpreter nests several Java frames per call, so a thread's stack runs out after some
+ * hundreds of calls. A call deeper than {@link #JAVA_DEPTH} runs here instead: the nodes left
+ * to run, the values in flight and the calls in progress are kept in arrays, so the calls it
+ * makes, however deep, don't use the Java stack and the depth is only bounded by the {@link Limits}. <br>
+ * Every node takes the generic path, without the interpreter's unboxing, and compiled functions
+ * run from their tree; only recursions this deep get here.
+ */
+final class FrameStack implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /** Calls nested on the Java stack, deeper ones run on a FrameStack. */
+    static final int JAVA_DEPTH = 128;
+
+    private final Interpreter interpreter;
+    // ==> Control stack, a node and how far it got (the statements a block ran, the operands evaluated)
+    private Object[] nodes = new Object[64];
+    private int[] states = new int[64];
+    private Environment[] saved = new Environment[64]; //Environment a block has to restore
+    private int top = 0;
+    private int state; //Of the node being run
+    // <== Control stack
+    private Object[] values = new Object[64]; //Of the expressions evaluated, operands on top
+    private int sp = 0;
+
+    /**
+     * A call in progress, its state counts the statements of the body started.
+     */
+    private static final class Frame {
+        final YaiCallable callee; //Function called, for the slow call event
+        final Token paren; //Of the call, null for the call the FrameStack was started with
+        final Events.SlowCall slowCall;
+        final Environment caller; //Environment to restore on return
+        final int base; //Values below belong to the caller
+        Stmt.Function declaration; //Body being run, a tail call replaces it
+        Environment environment; //Of the body, null until allocated
+
+        Frame(YaiCallable callee, Token paren, Events.SlowCall slowCall, Environment caller, int base) {
+            this.callee = callee;
+            this.paren = paren;
+            this.slowCall = slowCall;
+            this.caller = caller;
+            this.base = base;
+        }
+    }
+
+    FrameStack(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Runs a call already entered by the interpreter, the calls it makes stay on this stack.
+     * @param function
+     * @param arguments
+     * @return the value returned by the call.
+     */
+    Object call(YaiFunction function, Object[] arguments) {
+        Environment caller = interpreter.environment;
+        try {
+            start(new Frame(function, null, null, caller, 0), function.declaration, arguments);
+            while (top > 0)
+                step();
+            return values[--sp];
+        } catch (RuntimeException | Error e) {
+            unwind();
+            interpreter.environment = caller;
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the node on top of the control stack until it needs another node evaluated first.
+     */
+    private void step() {
+        Object node = nodes[--top];
+        state = states[top];
+        nodes[top] = null;
+        if (node instanceof Expr) {
+            ((Expr) node).accept(this);
+        } else if (node instanceof Stmt) {
+            if (state == 0) { //Counted like Interpreter.execute
+                interpreter.statements++;
+                if (interpreter.profiler != null && !(node instanceof Stmt.Block))
+                    interpreter.profiler.line(((Stmt) node).line);
+            }
+            ((Stmt) node).accept(this);
+        } else {
+            run((Frame) node);
+        }
+    }
+
+    // ==> Stacks
+    private void push(Object node, int state, Environment environment) {
+        if (top == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * top);
+            states = Arrays.copyOf(states, 2 * top);
+            saved = Arrays.copyOf(saved, 2 * top);
+        }
+        nodes[top] = node;
+        states[top] = state;
+        saved[top++] = environment;
+    }
+
+    private void push(Object node, int state) {
+        push(node, state, null);
+    }
+
+    /**
+     * Schedules a node to run from the start.
+     * @param node
+     */
+    private void push(Object node) {
+        push(node, 0, null);
+    }
+
+    private void value(Object value) {
+        if (sp == values.length)
+            values = Arrays.copyOf(values, 2 * sp);
+        values[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = values[--sp];
+        values[sp] = null;
+        return value;
+    }
+
+    /**
+     * Schedules expressions so the first one runs first, each leaves its value on the stack.
+     * @param expressions
+     */
+    private void pushAll(List<Expr> expressions) {
+        for (int i = expressions.size() - 1; i >= 0; i--)
+            push(expressions.get(i));
+    }
+
+    /**
+     * @param count
+     * @return the values of the last count expressions, in order.
+     */
+    private Object[] popAll(int count) {
+        Object[] popped = new Object[count];
+        sp -= count;
+        System.arraycopy(values, sp, popped, 0, count);
+        Arrays.fill(values, sp, sp + count, null);
+        return popped;
+    }
+    // <== Stacks
+
+    // ==> Calls
+    /**
+     * Pushes a frame and binds the arguments in a new environment, its body runs next.
+     * @param frame
+     * @param declaration of the function called
+     * @param arguments
+     */
+    private void start(Frame frame, Stmt.Function declaration, Object[] arguments) {
+        frame.declaration = declaration;
+        push(frame, 0);
+        Environment environment = interpreter.newEnvironment(interpreter.globals, declaration.locals, declaration.name.line);
+        for (int i = 0; i < arguments.length; i++)
+            environment.defineAt(i, arguments[i]);
+        environment.caller = interpreter.environment;
+        interpreter.environment = environment;
+        frame.environment = environment;
+    }
+
+    /**
+     * Runs the next statement of a body, or returns null after the last one.
+     * @param frame
+     */
+    private void run(Frame frame) {
+        List<Stmt> body = frame.declaration.body;
+        if (state < body.size()) {
+            push(frame, state + 1);
+            push(body.get(state));
+        } else {
+            push(frame, state);
+            complete(null);
+        }
+    }
+
+    /**
+     * Returns from the innermost call.
+     * @param value
+     */
+    private void complete(Object value) {
+        Frame frame = leave();
+        sp = frame.base;
+        value(value);
+        if (frame.paren != null)
+            exit(frame.callee, frame.paren, frame.slowCall);
+    }
+
+    /**
+     * Pops the innermost frame and what it was running, giving back its environments.
+     * @return the frame.
+     */
+    private Frame leave() {
+        while (!(nodes[top - 1] instanceof Frame)) {
+            top--;
+            release(nodes[top], states[top]);
+            nodes[top] = null;
+            saved[top] = null;
+        }
+        Frame frame = (Frame) nodes[--top];
+        nodes[top] = null;
+        interpreter.memory.release(Memory.environment(frame.environment.size()));
+        frame.environment = null;
+        interpreter.environment = frame.caller;
+        return frame;
+    }
+
+    /**
+     * Gives back the environment of a block left before its end.
+     * @param node
+     * @param state
+     */
+    private void release(Object node, int state) {
+        if (node instanceof Stmt.Block && state > 0 && ((Stmt.Block) node).locals > 0)
+            interpreter.memory.release(Memory.environment(((Stmt.Block) node).locals));
+    }
+
+    /**
+     * Ends a call entered with {@link Interpreter#enter}, like the interpreter does after a call.
+     * @param function
+     * @param paren
+     * @param slowCall
+     */
+    private void exit(YaiCallable function, Token paren, Events.SlowCall slowCall) {
+        interpreter.depth--;
+        if (interpreter.profiler != null) interpreter.profiler.exit();
+        if (slowCall != null) Events.endCall(slowCall, function, paren);
+    }
+
+    /**
+     * Leaves every call and block in progress after an error, so the interpreter's depth,
+     * profile and memory are as if they had unwound on the Java stack.
+     */
+    private void unwind() {
+        while (top > 0) {
+            Object node = nodes[--top];
+            nodes[top] = null;
+            saved[top] = null;
+            if (node instanceof Frame) {
+                Frame frame = (Frame) node;
+                if (frame.environment != null)
+                    interpreter.memory.release(Memory.environment(frame.environment.size()));
+                if (frame.paren != null)
+                    exit(frame.callee, frame.paren, frame.slowCall);
+            } else {
+                release(node, states[top]);
+            }
+        }
+        Arrays.fill(values, 0, sp, null);
+        sp = 0;
+    }
+    // <== Calls
+
+    // ==> Statements
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        Environment previous = saved[top];
+        saved[top] = null;
+        if (state == 0 && stmt.locals > 0) {
+            previous = interpreter.environment;
+            Environment environment = interpreter.newEnvironment(previous, stmt.locals, stmt.line);
+            environment.caller = previous;
+            interpreter.environment = environment;
+        }
+        if (state < stmt.statements.size()) {
+            push(stmt, state + 1, previous);
+            push(stmt.statements.get(state));
+        } else if (stmt.locals > 0) {
+            interpreter.memory.release(Memory.environment(stmt.locals));
+            interpreter.environment = previous;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (state == 0) {
+            push(stmt, 1);
+            push(stmt.expression);
+        } else {
+            pop();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        interpreter.visitFunctionStmt(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        if (state == 0) {
+            push(stmt, 1);
+            push(stmt.condition);
+        } else if (Interpreter.isTruthy(pop())) {
+            push(stmt.thenBranch);
+        } else if (stmt.elseBranch != null) {
+            push(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if (state == 0) {
+            push(stmt, 1);
+            push(stmt.expression);
+        } else {
+            Interpreter.print(interpreter.out, pop());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (state == 0) {
+            if (stmt.tailCall) { //The callee and the arguments, then the frame is replaced
+                Expr.Call call = (Expr.Call) stmt.value;
+                push(stmt, 2);
+                pushAll(call.arguments);
+                push(call.callee);
+            } else if (stmt.value != null) {
+                push(stmt, 1);
+                push(stmt.value);
+            } else {
+                complete(null);
+            }
+        } else if (state == 1) {
+            complete(pop());
+        } else {
+            tailCall((Expr.Call) stmt.value);
+        }
+        return null;
+    }
+
+    /**
+     * Runs an evaluated call in tail position in the caller's frame, like {@link YaiFunction#complete}.
+     * @param call
+     */
+    private void tailCall(Expr.Call call) {
+        Object[] arguments = popAll(call.arguments.size());
+        YaiCallable function = interpreter.target(call, pop(), arguments.length);
+        interpreter.tick(call.paren.line);
+        interpreter.calls++;
+        if (interpreter.profiler != null)
+            interpreter.profiler.tailCall(function);
+        if (function instanceof YaiFunction) {
+            Frame frame = leave();
+            start(frame, ((YaiFunction) function).declaration, arguments);
+        } else {
+            complete(function.callN(interpreter, arguments));
+        }
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (state == 0 && stmt.initializer != null) {
+            push(stmt, 1);
+            push(stmt.initializer);
+            return null;
+        }
+        Object value = stmt.initializer == null ? null : pop();
+        if (stmt.slot < 0)
+            interpreter.globals.define(stmt.name, value);
+        else
+            interpreter.environment.defineAt(stmt.slot, value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (state == 1) {
+            if (Interpreter.isTruthy(pop())) {
+                push(stmt, 2);
+                push(stmt.body);
+            }
+            return null;
+        }
+        if (state == 2) //After an iteration
+            interpreter.tick(stmt.line);
+        push(stmt, 1);
+        push(stmt.condition);
+        return null;
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (state == 0) {
+            push(expr, 1);
+            push(expr.value);
+            return null;
+        }
+        Object value = values[sp - 1]; //Stays as the value of the assignment
+        if (expr.depth < 0)
+            interpreter.global(expr).value = value;
+        else
+            interpreter.environment.assignAt(expr.depth, expr.slot, value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (state == 0) {
+            push(expr, 1);
+            push(expr.right);
+            push(expr.left);
+            return null;
+        }
+        Object right = pop(), left = pop();
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case PLUS:          value(interpreter.add(expr, left, right)); break;
+            case MINUS:         value(number(left, operator) - number(right, operator)); break;
+            case STAR:          value(number(left, operator) * number(right, operator)); break;
+            case SLASH:         value(number(left, operator) / number(right, operator)); break;
+            case GREATER:       value(number(left, operator) > number(right, operator)); break;
+            case GREATER_EQUAL: value(number(left, operator) >= number(right, operator)); break;
+            case LESS:          value(number(left, operator) < number(right, operator)); break;
+            case LESS_EQUAL:    value(number(left, operator) <= number(right, operator)); break;
+            case BANG_EQUAL:    value(!Interpreter.isEqual(left, right)); break;
+            case EQUAL_EQUAL:   value(Interpreter.isEqual(left, right)); break;
+            default:            value(null);
+        }
+        return null;
+    }
+
+    private static double number(Object value, Token operator) {
+        if (value instanceof Double) return (double) value;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (state == 0) {
+            push(expr, 1);
+            pushAll(expr.arguments);
+            push(expr.callee);
+            return null;
+        }
+        Object[] arguments = popAll(expr.arguments.size());
+        YaiCallable function = interpreter.target(expr, pop(), arguments.length);
+        interpreter.enter(expr.paren);
+        Profiler profiler = interpreter.profiler;
+        if (profiler != null) profiler.enter(function);
+        Events.SlowCall slowCall = interpreter.slowCalls ? Events.startCall() : null;
+        if (function instanceof YaiFunction) {
+            Frame frame = new Frame(function, expr.paren, slowCall, interpreter.environment, sp);
+            start(frame, ((YaiFunction) function).declaration, arguments);
+            return null;
+        }
+        try {
+            value(function.callN(interpreter, arguments));
+        } finally {
+            exit(function, expr.paren, slowCall);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        push(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        value(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        if (state == 0) {
+            push(expr, 1);
+            push(expr.left);
+            return null;
+        }
+        boolean truthy = Interpreter.isTruthy(values[sp - 1]);
+        if (expr.operator.type == TokenType.OR ? !truthy : truthy) { //The right operand decides
+            pop();
+            push(expr.right);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (state == 0) {
+            push(expr, 1);
+            push(expr.right);
+            return null;
+        }
+        Object right = pop();
+        if (expr.operator.type == TokenType.BANG) {
+            value(!Interpreter.isTruthy(right));
+        } else if (right instanceof Double) {
+            value(-(double) right);
+        } else {
+            throw new RuntimeError(expr.operator, "Operand must be a number.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0)
+            value(interpreter.global(expr).value);
+        else
+            value(interpreter.environment.getAt(expr.depth, expr.slot));
+        return null;
+    }
+    // <== Expressions
+}
@@ -0,0 +1,68 @@
+package com.uriegas.yai;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Lock free histogram of durations, in power of two buckets of microseconds. <br>
+ * Percentiles are reported as the upper bound of their bucket, so they are exact to a factor of two,
+ * which is enough to tell a fast script from a slow one without keeping every sample.
+ */
+final class Histogram {
+    private static final int BUCKETS = 40; //Bucket i holds durations below 2^i microseconds, the last one everything else
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder(); //Nanoseconds
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double meanMillis() {
+        long count = count();
+        return count == 0 ? 0 : total.sum() / 1e6 / count;
+    }
+
+    double maxMillis() {
+        return max.get() / 1e6;
+    }
+
+    /**
+     * @param fraction between 0 and 1, 0.99 for the 99th percentile
+     * @return upper bound of the bucket holding that percentile, in milliseconds.
+     */
+    double percentileMillis(double fraction) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return Math.min((1L << i) / 1e3, maxMillis());
+        }
+        return 0;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
@@ -1,66 +1,138 @@
 package com.uriegas.yai;
 
+import java.io.*;
 import java.util.*;
 import static com.uriegas.yai.TokenType.*;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = new Environment(); //Global environment
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
+    /**
+     * Default maximum number of nested calls (tail calls don't nest), see {@link Limits}.
+     * Deep calls keep their frames on the heap, see {@link FrameStack}.
+     */
+    static final int MAX_DEPTH = Integer.getInteger("yai.max.depth", 1 << 16);
+    /** Inline cache of a call site that has seen more than one callee. */
+    private static final Object GENERIC = new Object();
+
+    final Environment globals = new Environment(); //Global environment
+    final OutputSink out; //Where print writes
+    private final ErrorReporter reporter;
+    Environment environment = globals; //Innermost environment being run
+    int depth = 0; //Calls in progress
+    private final int maxDepth;
+    private final Limits.Meter meter;
+    private long fuel; //Left in the current slice of the meter
+    final Memory memory;
+    private Object returnValue; //Value of the return statement being completed
+    YaiCallable tailCallee; //Pending call of a TAIL_CALL completion
+    Object[] tailArguments;
+    private final Map<Sites, Object[]> caches = new IdentityHashMap<>(); //Per program, indexed by site
+    private Sites sites; //Program of the last caches used
+    private Object[] siteCaches; //Its caches
+    long cacheMisses; //Of the inline caches and the bindings of globals, since the context was created
+    Profiler profiler; //Null unless the context is being profiled
+    boolean slowCalls; //A JFR recording wants slow call events, checked when a script starts
+    // ==> Counters, added to the Metrics when a script ends
+    long statements;
+    long calls;
+    long environments;
+    // <== Counters
+
+    /**
+     * How a statement finished. A return travels up to its function as a RETURN
+     * completion (the value is kept in the interpreter) instead of as an exception.
+     * A TAIL_CALL leaves the call for the caller's {@link YaiFunction} to run, so it
+     * doesn't nest deeper in the Java stack.
+     */
+    enum Completion { NORMAL, RETURN, TAIL_CALL }
+
+    /**
+     * @param out where print writes
+     * @param reporter receives the runtime errors
+     * @param limits bounds of every script run
+     */
+    Interpreter(OutputSink out, ErrorReporter reporter, Limits limits) {
+        this.out = out;
+        this.reporter = reporter;
+        this.maxDepth = limits.maxDepth;
+        this.meter = new Limits.Meter(limits);
+        this.memory = new Memory(limits.maxMemory, this::retainRoots);
+    }
 
     void interpret(List<Stmt> statements) { 
+        meter.start();
+        fuel = 0;
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Yai.runtimeError(error);
+            reporter.runtimeError(error.line, error.getMessage());
+            depth = 0; //Compiled code doesn't unwind it
         }
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
-        return null;
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) //The value isn't needed, numbers can stay unboxed
+            assign((Expr.Assign) stmt.expression, false);
+        else
+            evaluate(stmt.expression);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        System.out.println(stringify(evaluate(stmt.expression)));
-        return null;
+    public Completion visitPrintStmt(Stmt.Print stmt) {
+        print(out, evaluate(stmt.expression));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall)
+            return tailCall((Expr.Call) stmt.value);
         Object value = null;
         if(stmt.value != null)
             value = evaluate(stmt.value);
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
-        if (stmt.initializer != null)
+        if (stmt.slot >= 0 && stmt.initializer != null && isNumber(stmt.initializer)) {
+            try {
+                environment.setNumberAt(stmt.slot, speculateNumber(stmt.initializer));
+                return Completion.NORMAL;
+            } catch (Unexpected e) {
+                value = e.value;
+            }
+        } else if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
+        }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        if (stmt.slot < 0)
+            globals.define(stmt.name, value);
+        else
+            environment.defineAt(stmt.slot, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.locals == 0) //Nothing declared, no need for an environment
+            return executeAll(stmt.statements);
+        return executeBlock(stmt.statements, newEnvironment(environment, stmt.locals, stmt.line));
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if (evaluateCondition(stmt.condition)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
@@ -77,102 +149,614 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (evaluateCondition(stmt.condition)) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL)
+                return completion;
+            tick(stmt.line);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);//Should be an IDENTIFIER
-        List<Object> arguments = new ArrayList<>();
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        Object first = null, second = null;
+        Object[] values = null;
+        switch (count) { //Up to two arguments are passed without an array
+            case 0:
+                break;
+            case 1:
+                first = evaluate(arguments.get(0));
+                break;
+            case 2:
+                first = evaluate(arguments.get(0));
+                second = evaluate(arguments.get(1));
+                break;
+            default:
+                values = evaluateAll(arguments);
+        }
+        YaiCallable function = target(expr, callee, count);
+        enter(expr.paren);
+        Profiler profiler = this.profiler;
+        if (profiler != null) profiler.enter(function);
+        Events.SlowCall slowCall = slowCalls ? Events.startCall() : null;
+        try {
+            if (isDeep(depth))
+                return callDeep(function, count == 0 ? new Object[0] : count == 1 ? new Object[] {first}
+                    : count == 2 ? new Object[] {first, second} : values);
+            switch (count) {
+                case 0:  return function.call0(this);
+                case 1:  return function.call1(this, first);
+                case 2:  return function.call2(this, first, second);
+                default: return function.callN(this, values);
+            }
+        } catch (StackOverflowError e) { //The JVM stack ran out before the maximum depth
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            depth--;
+            if (profiler != null) profiler.exit();
+            if (slowCall != null) Events.endCall(slowCall, function, expr.paren);
+        }
+    }
 
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    /**
+     * Evaluates and checks a call in tail position but leaves it pending.
+     * @param expr
+     * @return TAIL_CALL
+     */
+    private Completion tailCall(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        Object[] values = evaluateAll(expr.arguments);
+        YaiCallable target = target(expr, callee, values.length);
+        tick(expr.paren.line);
+        tailCallee = target;
+        tailArguments = values;
+        return Completion.TAIL_CALL;
+    }
+
+    /**
+     * Checks the callee of a call through the site's inline cache, a callee already checked to be
+     * callable with this many arguments. A site calling a global keeps following its binding
+     * when it changes, any other site that sees a second callee stops caching.
+     * @param expr
+     * @param callee
+     * @param count number of arguments
+     * @return the callee as a function.
+     */
+    YaiCallable target(Expr.Call expr, Object callee, int count) {
+        Object[] caches = caches(expr.sites);
+        Object target = caches[expr.site];
+        if (target == callee)
+            return (YaiCallable) target;
+        cacheMisses++;
+        YaiCallable function = checkCall(callee, count, expr.paren);
+        if (target == null || isGlobal(expr.callee))
+            caches[expr.site] = function;
+        else
+            caches[expr.site] = GENERIC;
+        return function;
+    }
+
+    /**
+     * @param sites numbering of a program
+     * @return this interpreter's caches of the program.
+     */
+    private Object[] caches(Sites sites) {
+        if (sites != this.sites) { //Another program, the functions of a program mostly call each other
+            Object[] caches = this.caches.get(sites);
+            if (caches == null)
+                this.caches.put(sites, caches = new Object[sites.count]);
+            this.sites = sites;
+            siteCaches = caches;
+        }
+        return siteCaches;
+    }
+
+    private static boolean isGlobal(Expr expr) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).depth < 0;
+    }
+
+    private Object[] evaluateAll(List<Expr> expressions) {
+        Object[] values = new Object[expressions.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = evaluate(expressions.get(i));
+        return values;
+    }
+
+    /**
+     * Calls a value with already evaluated arguments.
+     * @param callee
+     * @param arguments
+     * @param paren token used to report errors
+     * @return the value returned by the call.
+     */
+    Object call(Object callee, Object[] arguments, Token paren) {
+        YaiCallable function = checkCall(callee, arguments.length, paren);
+        enter(paren);
+        try {
+            if (isDeep(depth))
+                return callDeep(function, arguments);
+            return function.callN(this, arguments);
+        } catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } finally {
+            depth--;
         }
+    }
+
+    /**
+     * @param depth of a call
+     * @return whether the call has to run on a {@link FrameStack} to reach the maximum depth.
+     */
+    boolean isDeep(int depth) {
+        return depth > FrameStack.JAVA_DEPTH;
+    }
+
+    /**
+     * Runs an entered call on a {@link FrameStack}, the calls it makes stay on the heap.
+     * @param function
+     * @param arguments
+     * @return the value returned by the call.
+     */
+    private Object callDeep(YaiCallable function, Object[] arguments) {
+        if (function instanceof YaiFunction)
+            return new FrameStack(this).call((YaiFunction) function, arguments);
+        return function.callN(this, arguments);
+    }
+
+    /**
+     * Counts a call that is about to start, the caller decrements {@link #depth} when it ends.
+     * @param paren token used to report errors
+     */
+    void enter(Token paren) {
+        if (depth == maxDepth)
+            throw new RuntimeError(paren, "Stack overflow.");
+        tick(paren.line);
+        depth++;
+        calls++;
+    }
+
+    /**
+     * Spends one unit of fuel, at every loop iteration and call.
+     * Only a slice of the {@link Limits.Meter} running out costs more than a decrement.
+     * @param line where the script is, for the error
+     */
+    void tick(int line) {
+        if (--fuel < 0)
+            fuel = meter.refuel(line) - 1;
+    }
+
+    /**
+     * Checks that a value can be called with a number of arguments.
+     * @param callee
+     * @param count number of arguments
+     * @param paren token used to report errors
+     * @return the callee as a function.
+     */
+    static YaiCallable checkCall(Object callee, int count, Token paren) {
         if (!(callee instanceof YaiCallable))
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
 
         YaiCallable function = (YaiCallable) callee;
 
-        if (arguments.size() != function.arity())
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        if (count != function.arity())
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + count + ".");
 
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         YaiFunction function = new YaiFunction(stmt);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        if (stmt.slot < 0)
+            globals.define(stmt.name, function);
+        else
+            environment.defineAt(stmt.slot, function);
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        if (expr.depth < 0)
+            return global(expr).value;
+        return environment.getAt(expr.depth, expr.slot);
+    }
+
+    /**
+     * Binding of a global, cached at the node's site the first time this interpreter reads it.
+     * Compiled code shares the cache (see {@link JitRuntime#getGlobal}).
+     * @param expr
+     * @return the binding.
+     */
+    Environment.Global global(Expr.Variable expr) {
+        return global(expr.sites, expr.site, expr.name);
+    }
+
+    /**
+     * Binding of an assigned global, see {@link #global(Expr.Variable)}.
+     * @param expr
+     * @return the binding.
+     */
+    Environment.Global global(Expr.Assign expr) {
+        return global(expr.sites, expr.site, expr.name);
+    }
+
+    private Environment.Global global(Sites sites, int site, Token name) {
+        Object[] caches = caches(sites);
+        Object global = caches[site];
+        if (global == null) {
+            cacheMisses++;
+            caches[site] = global = globals.global(name); //Defining the name again keeps the binding
+        }
+        return (Environment.Global) global;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        return assign(expr, true);
+    }
+
+    /**
+     * Assigns a variable, locals that receive a number keep it unboxed.
+     * @param expr
+     * @param needValue false if the caller discards the result
+     * @return the assigned value (null if not needed).
+     */
+    private Object assign(Expr.Assign expr, boolean needValue) {
+        Object value;
+        if (expr.depth >= 0 && isNumber(expr.value)) {
+            try {
+                double number = speculateNumber(expr.value);
+                environment.ancestor(expr.depth).setNumberAt(expr.slot, number);
+                return needValue ? (Object) number : null;
+            } catch (Unexpected e) {
+                value = e.value;
+            }
+        } else {
+            value = evaluate(expr.value);
+        }
+        if (expr.depth < 0) {
+            global(expr).value = value;
+        } else {
+            environment.assignAt(expr.depth, expr.slot, value);
+        }
         return value;
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
         switch (expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
+                return !evaluateCondition(expr.right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return -evaluateNumber(expr.right, expr.operator, "Operand must be a number.");
         }
         return null;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right); 
         switch (expr.operator.type) {
             case PLUS:
-                if (left instanceof Double && right instanceof Double)
-                    return (double)left + (double)right;
-                if (left instanceof String && right instanceof String) //Handle concatenation
-                    return (String)left + (String)right;
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                if (isNumber(expr)) {
+                    try {
+                        return isArithmetic(expr) ? arithmetic(expr) : speculateAdd(expr);
+                    } catch (Unexpected e) {
+                        return e.value;
+                    }
+                }
+                break;
             case MINUS:
-                return (double)left - (double)right;
             case SLASH:
-                checkNumberOperand(expr.operator, right);
-                return (double)left / (double)right;
             case STAR:
-                checkNumberOperand(expr.operator, right);
-                return (double)left * (double)right;
+                return arithmetic(expr);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                return compare(expr);
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return !equality(expr);
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return equality(expr);
         }
-        return null;
+        return add(expr, evaluate(expr.left), evaluate(expr.right));
+    }
+
+    // ==> Specialization
+    /**
+     * Dynamic +, the node specializes on the operand types it sees first:
+     * NUMBER nodes are later evaluated unboxed ({@link #speculateAdd}),
+     * STRING nodes test for strings first. A failed guard turns the node GENERIC.
+     * @param expr
+     * @param left
+     * @param right
+     * @return the sum or the concatenation.
+     */
+    Object add(Expr.Binary expr, Object left, Object right) {
+        switch (expr.feedback) {
+            case UNINITIALIZED:
+                if (left instanceof Double && right instanceof Double)
+                    expr.feedback = Expr.Feedback.NUMBER;
+                else if (left instanceof CharSequence && right instanceof CharSequence)
+                    expr.feedback = Expr.Feedback.STRING;
+                else
+                    expr.feedback = Expr.Feedback.GENERIC;
+                break;
+            case STRING:
+                if (left instanceof CharSequence && right instanceof CharSequence)
+                    return concat((CharSequence)left, (CharSequence)right, expr.operator);
+                expr.feedback = Expr.Feedback.GENERIC;
+                break;
+            case NUMBER:
+                if (left instanceof Double && right instanceof Double)
+                    return (double)left + (double)right;
+                expr.feedback = Expr.Feedback.GENERIC;
+                break;
+            default:
+                break;
+        }
+        if (left instanceof Double && right instanceof Double)
+            return (double)left + (double)right;
+        if (left instanceof CharSequence && right instanceof CharSequence) //Handle concatenation
+            return concat((CharSequence)left, (CharSequence)right, expr.operator);
+        throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+    }
+
+    /**
+     * Concatenates two strings, charging the result to the {@link Memory} before building it.
+     * @param left a String or a {@link Rope}
+     * @param right a String or a {@link Rope}
+     * @param operator token used to report errors
+     * @return the concatenation, a rope if it is long.
+     */
+    CharSequence concat(CharSequence left, CharSequence right, Token operator) {
+        memory.allocate(Rope.bytes(left, right), operator.line);
+        return Rope.concat(left, right);
     }
+
+    /**
+     * Dynamic + on a node that has only seen numbers, the result stays unboxed.
+     * @param expr
+     * @return the sum.
+     * @throws Unexpected with the generic result if an operand wasn't a number.
+     */
+    private double speculateAdd(Expr.Binary expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        if (left instanceof Double && right instanceof Double)
+            return (double)left + (double)right;
+        throw new Unexpected(add(expr, left, right)); //Deoptimizes the node
+    }
+
+    /**
+     * Thrown when a speculatively unboxed expression produced something else.
+     * It carries the value so the caller can continue on the boxed path. A + deoptimizes
+     * before throwing it, so it throws it at most once.
+     */
+    private static final class Unexpected extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final Object value;
+
+        Unexpected(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+    // <== Specialization
+
+    // ==> Unboxed evaluation
+    /**
+     * Checks, without evaluating it, if an expression should produce a number right now:
+     * it is numeric by construction, reads locals currently holding numbers
+     * or is a + that has only seen numbers (a speculation, see {@link #speculateNumber}).
+     * @param expr
+     * @return true if {@link #evaluateNumber} can be used instead of {@link #evaluate}.
+     */
+    private boolean isNumber(Expr expr) {
+        if (expr.numeric) return true;
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return variable.depth >= 0 && environment.ancestor(variable.depth).isNumber(variable.slot);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return binary.operator.type == PLUS && (binary.feedback == Expr.Feedback.NUMBER || isArithmetic(binary));
+        }
+        if (expr instanceof Expr.Grouping)
+            return isNumber(((Expr.Grouping) expr).expression);
+        return false;
+    }
+
+    /**
+     * @param expr a +
+     * @return true if the + can't be a concatenation, so {@link #arithmetic} applies.
+     */
+    private boolean isArithmetic(Expr.Binary expr) {
+        return expr.numeric || isNumber(expr.left) && isNumber(expr.right);
+    }
+
+    /**
+     * Evaluates an expression that has to produce a number, keeping intermediates as primitive doubles.
+     * @param expr
+     * @param operator token used to report a non number
+     * @param message error message for a non number
+     * @return the number.
+     */
+    private double evaluateNumber(Expr expr, Token operator, String message) {
+        try {
+            return speculateNumber(expr);
+        } catch (Unexpected e) { //Not a number after all
+            throw new RuntimeError(operator, message);
+        }
+    }
+
+    /**
+     * Like {@link #evaluateNumber} but for callers that can take any value: if a speculation
+     * fails the value is handed back instead of reported. <br>
+     * Callers check {@link #isNumber} before evaluating their other operands, which can run
+     * this same node in a nested call and deoptimize it, so a non number is never an error here.
+     * @param expr
+     * @return the number.
+     * @throws Unexpected if a speculatively numeric expression produced something else.
+     */
+    private double speculateNumber(Expr expr) {
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.depth >= 0) {
+                Environment frame = environment.ancestor(variable.depth);
+                if (frame.isNumber(variable.slot)) return frame.numberAt(variable.slot);
+                throw new Unexpected(environment.getAt(variable.depth, variable.slot));
+            }
+        } else if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Double) return (double) value;
+            throw new Unexpected(value);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS:
+                    if (isArithmetic(binary))
+                        return arithmetic(binary);
+                    if (binary.feedback == Expr.Feedback.NUMBER)
+                        return speculateAdd(binary);
+                    break;
+                case MINUS: case STAR: case SLASH:
+                    return arithmetic(binary);
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return speculateNumber(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Unary && expr.numeric) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return -evaluateNumber(unary.right, unary.operator, "Operand must be a number.");
+        }
+        Object value = evaluate(expr);
+        if (value instanceof Double) return (double) value;
+        throw new Unexpected(value);
+    }
+
+    /**
+     * Evaluates +, -, * or / on numbers.
+     * Both operands are evaluated before either is checked, like the boxed path did.
+     * @param expr
+     * @return the result.
+     * @throws Unexpected if a speculatively numeric left operand turned a + into a concatenation.
+     */
+    private double arithmetic(Expr.Binary expr) {
+        String message = expr.operator.type == PLUS ? "Operands must be two numbers or two strings." : "Operands must be numbers.";
+        double left, right;
+        if (isNumber(expr.left)) {
+            try {
+                left = speculateNumber(expr.left);
+            } catch (Unexpected e) { //Finish on the boxed path, only a + can still succeed
+                Object value = e.value, other = evaluate(expr.right);
+                if (expr.operator.type != PLUS)
+                    throw new RuntimeError(expr.operator, message);
+                Object result = add(expr, value, other);
+                if (result instanceof Double) return (double) result;
+                throw new Unexpected(result);
+            }
+            right = evaluateNumber(expr.right, expr.operator, message);
+        } else {
+            Object value = evaluate(expr.left);
+            right = evaluateNumber(expr.right, expr.operator, message);
+            if (!(value instanceof Double))
+                throw new RuntimeError(expr.operator, message);
+            left = (double) value;
+        }
+        switch (expr.operator.type) {
+            case PLUS:  return left + right;
+            case MINUS: return left - right;
+            case STAR:  return left * right;
+            default:    return left / right;
+        }
+    }
+
+    /**
+     * Evaluates a comparison between numbers without boxing them.
+     * @param expr
+     * @return the result.
+     */
+    private boolean compare(Expr.Binary expr) {
+        String message = "Operands must be numbers.";
+        double left, right;
+        if (isNumber(expr.left)) {
+            try {
+                left = speculateNumber(expr.left);
+            } catch (Unexpected e) { //The right operand still runs before the error
+                evaluate(expr.right);
+                throw new RuntimeError(expr.operator, message);
+            }
+            right = evaluateNumber(expr.right, expr.operator, message);
+        } else {
+            Object value = evaluate(expr.left);
+            right = evaluateNumber(expr.right, expr.operator, message);
+            if (!(value instanceof Double))
+                throw new RuntimeError(expr.operator, message);
+            left = (double) value;
+        }
+        switch (expr.operator.type) {
+            case GREATER:       return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS:          return left < right;
+            default:            return left <= right;
+        }
+    }
+
+    /**
+     * Evaluates ==, numbers are compared unboxed with the semantics of {@link Double#equals}.
+     * @param expr
+     * @return true if both operands are equal.
+     */
+    private boolean equality(Expr.Binary expr) {
+        if (isNumber(expr.left) && isNumber(expr.right)) {
+            double left, right;
+            try {
+                left = speculateNumber(expr.left);
+            } catch (Unexpected e) {
+                return isEqual(e.value, evaluate(expr.right));
+            }
+            try {
+                right = speculateNumber(expr.right);
+            } catch (Unexpected e) {
+                return isEqual(left, e.value);
+            }
+            return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+        }
+        return isEqual(evaluate(expr.left), evaluate(expr.right));
+    }
+
+    /**
+     * Evaluates an expression only for its truthiness, without boxing booleans.
+     * @param expr
+     * @return true if the value is truthy.
+     */
+    private boolean evaluateCondition(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                    return compare(binary);
+                case EQUAL_EQUAL:
+                    return equality(binary);
+                case BANG_EQUAL:
+                    return !equality(binary);
+            }
+        } else if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            if (logical.operator.type == OR)
+                return evaluateCondition(logical.left) || evaluateCondition(logical.right);
+            return evaluateCondition(logical.left) && evaluateCondition(logical.right);
+        } else if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == BANG) {
+            return !evaluateCondition(((Expr.Unary) expr).right);
+        }
+        return isTruthy(evaluate(expr));
+    }
+    // <== Unboxed evaluation
     
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
@@ -188,20 +772,85 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        statements++;
+        if (profiler != null && !(stmt instanceof Stmt.Block)) //Blocks only group statements
+            profiler.line(stmt.line);
+        return stmt.accept(this);
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
+    /**
+     * Allocates a local environment, counting it for the {@link Metrics} and charging it to the {@link Memory}.
+     * {@link #executeBlock} gives the memory back when the environment is left.
+     * @param enclosing
+     * @param size number of slots
+     * @param line where the script is, for the error
+     * @return the environment.
+     */
+    Environment newEnvironment(Environment enclosing, int size, int line) {
+        environments++;
+        memory.allocate(Memory.environment(size), line);
+        return new Environment(enclosing, size);
+    }
+
+    /**
+     * Runs statements in an environment created by {@link #newEnvironment}.
+     * Functions can't see the environments of their callers, so it is garbage once left.
+     * @param statements
+     * @param environment
+     * @return how the statements completed.
+     */
+    public Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
+            environment.caller = previous;
             this.environment = environment;
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
+            return executeAll(statements);
         } finally {
             this.environment = previous;
+            memory.release(Memory.environment(environment.size()));
+        }
+    }
+
+    /**
+     * Retains what the script can still reach: the globals, the environments being run
+     * and the values in flight between a return or a tail call and its caller.
+     * @param memory
+     */
+    private void retainRoots(Memory memory) {
+        globals.retain(memory);
+        for (Environment frame = environment; frame != globals; frame = frame.caller)
+            frame.retain(memory);
+        memory.retain(returnValue);
+        if (tailArguments != null) {
+            for (Object argument : tailArguments)
+                memory.retain(argument);
+        }
+    }
+
+    /**
+     * Executes statements in the current environment, stopping at a return.
+     * Indexed loop so running a block doesn't allocate an iterator.
+     * @param statements
+     * @return how the return statement completed, NORMAL if none was executed.
+     */
+    private Completion executeAll(List<Stmt> statements) {
+        for (int i = 0, size = statements.size(); i < size; i++) {
+            Completion completion = execute(statements.get(i));
+            if (completion != Completion.NORMAL)
+                return completion;
         }
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Hands over the value of the last RETURN completion.
+     * @return the returned value.
+     */
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null; //Don't keep it alive
+        return value;
     }
 
     /**
@@ -209,7 +858,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * @param object
      * @return
      */
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -220,46 +869,33 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * @param right
      * @return true if equal, false otherwise
      */
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        if (a instanceof Rope || b instanceof Rope) //Compares the characters, a rope is flattened once
+            return a instanceof CharSequence && b instanceof CharSequence && a.toString().equals(b.toString());
         return a.equals(b);
     }
-    /**
-     * Checks if an object is a number
-     * @param operator
-     * @param operand
-     */
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-    /**
-     * Checks if two objects are numbers
-     * @param operator
-     * @param left
-     * @param right
-     * @throw RuntimeError if not a number
-     */
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
-
     /**
      * Converts an object to a string
      * @param object
      * @return string representation of object
      */
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "null";
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0"))
-                text = text.substring(0, text.length() - 2);
-            return text;
-        }
+        if (object instanceof Double) return Numbers.toString((double) object);
         return object.toString();
     }
+
+    /**
+     * Prints a value, numbers are formatted by the sink without a String.
+     * @param out
+     * @param value
+     */
+    static void print(OutputSink out, Object value) {
+        if (value instanceof Double)
+            out.println((double) value);
+        else
+            out.println(stringify(value));
+    }
 }
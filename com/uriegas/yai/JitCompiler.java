@@ -0,0 +1,659 @@
+package com.uriegas.yai;
+
+import java.lang.invoke.*;
+import java.util.*;
+import static com.uriegas.yai.ClassFileWriter.*;
+
+/**
+ * Compiles hot functions to JVM bytecode so the JVM's own JIT can optimize them. <br>
+ * Each {@link Stmt.Function} becomes a hidden class implementing {@link Body}.
+ * Numeric intermediates stay as primitive doubles, everything stored in a variable is an Object,
+ * and any operation that can fail goes through {@link JitRuntime} so errors match the {@link Interpreter}.
+ * Calls to the function itself skip the generic call path and tail calls to it become a jump. <br>
+ * Functions declaring nested functions are not compiled and keep running in the interpreter.
+ */
+final class JitCompiler implements Expr.Visitor<JitCompiler.Kind>, Stmt.Visitor<Void> {
+    /** Number of calls after which a function gets compiled, 0 disables the tier. */
+    static final int THRESHOLD = Integer.getInteger("yai.jit.threshold", 1000);
+
+    /**
+     * Entry point of a compiled function.
+     */
+    interface Body {
+        Object invoke(Interpreter interpreter, YaiFunction self, Object[] arguments);
+    }
+
+    /**
+     * What a compiled expression leaves on the JVM stack.
+     */
+    enum Kind { OBJECT, NUMBER, BOOLEAN }
+
+    private static final String OBJECT_TYPE = "java/lang/Object";
+    private static final String RUNTIME = "com/uriegas/yai/JitRuntime";
+    private static final String OBJ = "Ljava/lang/Object;";
+    private static final String TOKEN = "Lcom/uriegas/yai/Token;";
+    private static final String VARIABLE = "Lcom/uriegas/yai/Expr$Variable;";
+    private static final String ASSIGN = "Lcom/uriegas/yai/Expr$Assign;";
+    private static final String INTERPRETER = "Lcom/uriegas/yai/Interpreter;";
+    private static final String FUNCTION = "Lcom/uriegas/yai/YaiFunction;";
+    private static final int INTERPRETER_SLOT = 1, SELF_SLOT = 2, FIRST_PARAM_SLOT = 3;
+
+    private final Stmt.Function function;
+    private final ClassFileWriter writer;
+    private final String className;
+    private final String bodyDescriptor;
+    private final boolean tailCalls; //The body can end in a call the caller has to run
+    private final ClassFileWriter.Label start = new ClassFileWriter.Label(); //Target of self tail calls
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    private ClassFileWriter.Code code;
+
+    private JitCompiler(Stmt.Function function) {
+        this.function = function;
+        this.className = "com/uriegas/yai/Jit$" + function.name.lexeme;
+        this.writer = new ClassFileWriter(className, OBJECT_TYPE, "com/uriegas/yai/JitCompiler$Body");
+        StringBuilder descriptor = new StringBuilder("(" + INTERPRETER + FUNCTION);
+        for (int i = 0; i < function.params.size(); i++)
+            descriptor.append(OBJ);
+        this.bodyDescriptor = descriptor.append(")").append(OBJ).toString();
+        this.tailCalls = hasTailCall(function.body);
+    }
+
+    /**
+     * Compiled body of a declaration, compiling it the first time it is asked for.
+     * The body doesn't depend on the interpreter running it, so every context running a
+     * {@link Program} shares it and a hot function is compiled only once.
+     * @param function
+     * @return the compiled body or null if the function can't be compiled.
+     */
+    static Body compiled(Stmt.Function function) {
+        synchronized (function) {
+            if (!function.jitted) {
+                function.compiled = compile(function);
+                function.jitted = true;
+            }
+            return function.compiled;
+        }
+    }
+
+    /**
+     * Compiles a function declaration.
+     * @param function
+     * @return the compiled body or null if the function uses something the compiler doesn't support.
+     */
+    private static Body compile(Stmt.Function function) {
+        try {
+            JitCompiler compiler = new JitCompiler(function);
+            byte[] bytes = compiler.generate();
+            Class<?> compiled = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (Body) compiled.getConstructor(Object[].class).newInstance((Object) compiler.constants.toArray());
+        } catch (UnsupportedOperationException | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private byte[] generate() {
+        writer.field(ACC_PRIVATE | ACC_FINAL, "k", "[" + OBJ);
+
+        // ==> Constructor: stores the constants
+        ClassFileWriter.Code init = writer.method(ACC_PUBLIC, "<init>", "([" + OBJ + ")V", 2);
+        init.load(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, writer.methodRef(OBJECT_TYPE, "<init>", "()V"), -1);
+        init.load(ALOAD, 0);
+        init.load(ALOAD, 1);
+        init.op2(PUTFIELD, writer.fieldRef(className, "k", "[" + OBJ), -2);
+        init.op(RETURN, 0);
+        // <== Constructor
+
+        // ==> Bridge from the Body interface to the fixed arity body
+        int arity = function.params.size();
+        ClassFileWriter.Code invoke = writer.method(ACC_PUBLIC, "invoke", "(" + INTERPRETER + FUNCTION + "[" + OBJ + ")" + OBJ, 4);
+        invoke.load(ALOAD, 0);
+        invoke.load(ALOAD, INTERPRETER_SLOT);
+        invoke.load(ALOAD, SELF_SLOT);
+        for (int i = 0; i < arity; i++) {
+            invoke.load(ALOAD, 3);
+            invoke.pushInt(i);
+            invoke.op(AALOAD, -1);
+        }
+        invoke.invoke(INVOKEVIRTUAL, writer.methodRef(className, "body", bodyDescriptor), -(arity + 2));
+        invoke.op(ARETURN, -1);
+        // <== Bridge
+
+        code = writer.method(ACC_PUBLIC | ACC_FINAL, "body", bodyDescriptor, FIRST_PARAM_SLOT + arity);
+        Map<String, Integer> params = new IdentityHashMap<>(); //Names are symbols, see Symbols
+        for (int i = 0; i < arity; i++)
+            params.put(function.params.get(i).lexeme, FIRST_PARAM_SLOT + i);
+        scopes.add(params);
+        code.place(start);
+        for (Stmt statement : function.body)
+            compile(statement);
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        return writer.toByteArray();
+    }
+
+    // ==> Statements
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new IdentityHashMap<>());
+        for (Stmt statement : stmt.statements)
+            compile(statement);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        Kind kind = compile(stmt.expression);
+        if (kind == Kind.NUMBER) code.op(POP2, -2);
+        else code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new UnsupportedOperationException("Nested function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFileWriter.Label elseBranch = new ClassFileWriter.Label();
+        compileAs(stmt.condition, Kind.BOOLEAN, null);
+        code.jump(IFEQ, elseBranch, -1);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            code.place(elseBranch);
+            return null;
+        }
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.jump(GOTO, end, 0);
+        code.place(elseBranch);
+        compile(stmt.elseBranch);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        code.load(ALOAD, INTERPRETER_SLOT);
+        Kind kind = compile(stmt.expression);
+        if (kind == Kind.NUMBER) { //Printed without boxing
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "print", "(" + INTERPRETER + "D)V"), -3);
+        } else {
+            coerce(kind, Kind.OBJECT, null);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "print", "(" + INTERPRETER + OBJ + ")V"), -2);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            tailCall((Expr.Call) stmt.value);
+            return null;
+        }
+        if (stmt.value != null)
+            compileAs(stmt.value, Kind.OBJECT, null);
+        else
+            code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null)
+            compileAs(stmt.initializer, Kind.OBJECT, null);
+        else
+            code.op(ACONST_NULL, 1);
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        Integer slot = scope.get(stmt.name.lexeme);
+        if (slot == null) {
+            slot = code.newLocal(1);
+            scope.put(stmt.name.lexeme, slot);
+        }
+        code.store(ASTORE, slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFileWriter.Label loop = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.place(loop);
+        compileAs(stmt.condition, Kind.BOOLEAN, null);
+        code.jump(IFEQ, end, -1);
+        compile(stmt.body);
+        tick(stmt.line);
+        code.jump(GOTO, loop, 0);
+        code.place(end);
+        return null;
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Kind visitAssignExpr(Expr.Assign expr) {
+        Integer slot = lookup(expr.name.lexeme);
+        if (slot != null) {
+            compileAs(expr.value, Kind.OBJECT, null);
+            code.op(DUP, 1);
+            code.store(ASTORE, slot);
+        } else {
+            code.load(ALOAD, INTERPRETER_SLOT);
+            loadConstant(expr);
+            compileAs(expr.value, Kind.OBJECT, null);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "setGlobal", "(" + INTERPRETER + ASSIGN + OBJ + ")" + OBJ), -2);
+        }
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case PLUS:
+                if (kindOf(expr.left) == Kind.NUMBER && kindOf(expr.right) == Kind.NUMBER) {
+                    compileAs(expr.left, Kind.NUMBER, expr.operator);
+                    compileAs(expr.right, Kind.NUMBER, expr.operator);
+                    code.op(DADD, -2);
+                    return Kind.NUMBER;
+                }
+                code.load(ALOAD, INTERPRETER_SLOT);
+                compileAs(expr.left, Kind.OBJECT, null);
+                compileAs(expr.right, Kind.OBJECT, null);
+                loadConstant(expr.operator);
+                code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "add", "(" + INTERPRETER + OBJ + OBJ + TOKEN + ")" + OBJ), -3);
+                return Kind.OBJECT;
+            case MINUS:
+                numberOperands(expr);
+                code.op(DSUB, -2);
+                return Kind.NUMBER;
+            case STAR:
+                numberOperands(expr);
+                code.op(DMUL, -2);
+                return Kind.NUMBER;
+            case SLASH:
+                numberOperands(expr);
+                code.op(DDIV, -2);
+                return Kind.NUMBER;
+            case GREATER:
+                numberOperands(expr);
+                return comparison(DCMPL, IFLE);
+            case GREATER_EQUAL:
+                numberOperands(expr);
+                return comparison(DCMPL, IFLT);
+            case LESS:
+                numberOperands(expr);
+                return comparison(DCMPG, IFGE);
+            case LESS_EQUAL:
+                numberOperands(expr);
+                return comparison(DCMPG, IFGT);
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                if (kindOf(expr.left) == Kind.NUMBER && kindOf(expr.right) == Kind.NUMBER) {
+                    compileAs(expr.left, Kind.NUMBER, expr.operator);
+                    compileAs(expr.right, Kind.NUMBER, expr.operator);
+                    code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "equal", "(DD)Z"), -3);
+                } else {
+                    compileAs(expr.left, Kind.OBJECT, null);
+                    compileAs(expr.right, Kind.OBJECT, null);
+                    code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "isEqual", "(" + OBJ + OBJ + ")Z"), -1);
+                }
+                if (expr.operator.type == TokenType.BANG_EQUAL)
+                    negate();
+                return Kind.BOOLEAN;
+            default:
+                throw new UnsupportedOperationException("Binary operator " + expr.operator.lexeme);
+        }
+    }
+
+    @Override
+    public Kind visitCallExpr(Expr.Call expr) {
+        int[] values = compileCall(expr);
+        int arguments = values.length - 1;
+
+        ClassFileWriter.Label slow = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        if (arguments == function.params.size()) { //Direct call if the callee is this same function
+            code.load(ALOAD, values[0]);
+            code.load(ALOAD, SELF_SLOT);
+            code.jump(IF_ACMPNE, slow, -2);
+            code.load(ALOAD, INTERPRETER_SLOT);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "direct", "(" + INTERPRETER + ")Z"), 0);
+            code.jump(IFEQ, slow, -1);
+            code.load(ALOAD, INTERPRETER_SLOT);
+            loadConstant(expr.paren);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "enter", "(" + INTERPRETER + TOKEN + ")V"), -2);
+            if (tailCalls) code.load(ALOAD, INTERPRETER_SLOT);
+            code.load(ALOAD, 0);
+            code.load(ALOAD, INTERPRETER_SLOT);
+            code.load(ALOAD, SELF_SLOT);
+            for (int i = 1; i < values.length; i++)
+                code.load(ALOAD, values[i]);
+            code.invoke(INVOKEVIRTUAL, writer.methodRef(className, "body", bodyDescriptor), -(arguments + 2));
+            if (tailCalls) //The body may have ended in a tail call, run it
+                code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "complete", "(" + INTERPRETER + OBJ + ")" + OBJ), -1);
+            code.load(ALOAD, INTERPRETER_SLOT);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "exit", "(" + INTERPRETER + ")V"), -1);
+            code.jump(GOTO, end, 0);
+        }
+        code.place(slow);
+        genericCall(expr, values, "call");
+        code.place(end);
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Compiles a call in tail position. A call to the function itself jumps back
+     * to the start of the body, any other call is left to the caller's trampoline.
+     * @param expr
+     */
+    private void tailCall(Expr.Call expr) {
+        int[] values = compileCall(expr);
+        ClassFileWriter.Label other = new ClassFileWriter.Label();
+        if (values.length - 1 == function.params.size()) {
+            code.load(ALOAD, values[0]);
+            code.load(ALOAD, SELF_SLOT);
+            code.jump(IF_ACMPNE, other, -2);
+            for (int i = 1; i < values.length; i++) {
+                code.load(ALOAD, values[i]);
+                code.store(ASTORE, FIRST_PARAM_SLOT + i - 1);
+            }
+            tick(expr.paren.line);
+            code.jump(GOTO, start, 0);
+        }
+        code.place(other);
+        genericCall(expr, values, "tailCall");
+        code.op(ARETURN, -1);
+    }
+
+    /**
+     * Evaluates the callee and the arguments of a call into fresh locals.
+     * @param expr
+     * @return the locals, the callee first.
+     */
+    private int[] compileCall(Expr.Call expr) {
+        int[] values = new int[expr.arguments.size() + 1];
+        values[0] = code.newLocal(1);
+        compileAs(expr.callee, Kind.OBJECT, null);
+        code.store(ASTORE, values[0]);
+        for (int i = 1; i < values.length; i++) {
+            values[i] = code.newLocal(1);
+            compileAs(expr.arguments.get(i - 1), Kind.OBJECT, null);
+            code.store(ASTORE, values[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Calls through {@link JitRuntime}, which checks the callee like the interpreter.
+     * @param expr
+     * @param values locals from {@link #compileCall}
+     * @param method runtime method taking the interpreter, the callee, the arguments and the paren
+     */
+    private void genericCall(Expr.Call expr, int[] values, String method) {
+        code.load(ALOAD, INTERPRETER_SLOT);
+        code.load(ALOAD, values[0]);
+        code.pushInt(values.length - 1);
+        code.op2(ANEWARRAY, writer.classRef(OBJECT_TYPE), 0);
+        for (int i = 1; i < values.length; i++) {
+            code.op(DUP, 1);
+            code.pushInt(i - 1);
+            code.load(ALOAD, values[i]);
+            code.op(AASTORE, -3);
+        }
+        loadConstant(expr.paren);
+        code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, method, "(" + INTERPRETER + OBJ + "[" + OBJ + TOKEN + ")" + OBJ), -3);
+    }
+
+    @Override
+    public Kind visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Kind visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL, 1);
+            return Kind.OBJECT;
+        }
+        if (expr.value instanceof Boolean) {
+            code.pushInt((Boolean) expr.value ? 1 : 0);
+            return Kind.BOOLEAN;
+        }
+        if (expr.value instanceof Double) {
+            code.ldc2(writer.doubleConstant((Double) expr.value));
+            return Kind.NUMBER;
+        }
+        if (expr.value instanceof String) {
+            code.ldc(writer.string((String) expr.value));
+            return Kind.OBJECT;
+        }
+        throw new UnsupportedOperationException("Literal " + expr.value);
+    }
+
+    @Override
+    public Kind visitLogicalExpr(Expr.Logical expr) {
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        compileAs(expr.left, Kind.OBJECT, null);
+        code.op(DUP, 1);
+        code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "isTruthy", "(" + OBJ + ")Z"), 0);
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end, -1);
+        code.op(POP, -1);
+        compileAs(expr.right, Kind.OBJECT, null);
+        code.place(end);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            compileAs(expr.right, Kind.BOOLEAN, expr.operator);
+            negate();
+            return Kind.BOOLEAN;
+        }
+        Kind kind = compile(expr.right);
+        if (kind != Kind.NUMBER) {
+            coerce(kind, Kind.OBJECT, null);
+            loadConstant(expr.operator);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "operand", "(" + OBJ + TOKEN + ")D"), 0);
+        }
+        code.op(DNEG, 0);
+        return Kind.NUMBER;
+    }
+
+    @Override
+    public Kind visitVariableExpr(Expr.Variable expr) {
+        Integer slot = lookup(expr.name.lexeme);
+        if (slot != null) {
+            code.load(ALOAD, slot);
+        } else {
+            code.load(ALOAD, INTERPRETER_SLOT);
+            loadConstant(expr);
+            code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "getGlobal", "(" + INTERPRETER + VARIABLE + ")" + OBJ), -1);
+        }
+        return Kind.OBJECT;
+    }
+    // <== Expressions
+
+    // ==> Helper Methods
+    private static boolean hasTailCall(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (hasTailCall(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasTailCall(Stmt stmt) {
+        if (stmt instanceof Stmt.Return)
+            return ((Stmt.Return) stmt).tailCall;
+        if (stmt instanceof Stmt.Block)
+            return hasTailCall(((Stmt.Block) stmt).statements);
+        if (stmt instanceof Stmt.If) {
+            Stmt.If branch = (Stmt.If) stmt;
+            return hasTailCall(branch.thenBranch) || branch.elseBranch != null && hasTailCall(branch.elseBranch);
+        }
+        if (stmt instanceof Stmt.While)
+            return hasTailCall(((Stmt.While) stmt).body);
+        return false;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private Kind compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * Compiles an expression and converts its result.
+     * @param expr
+     * @param wanted
+     * @param operator token used to report a failed conversion to a number
+     */
+    private void compileAs(Expr expr, Kind wanted, Token operator) {
+        coerce(compile(expr), wanted, operator);
+    }
+
+    private void coerce(Kind from, Kind to, Token operator) {
+        if (from == to) return;
+        switch (to) {
+            case OBJECT:
+                if (from == Kind.NUMBER)
+                    code.invoke(INVOKESTATIC, writer.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+                else
+                    code.invoke(INVOKESTATIC, writer.methodRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+                break;
+            case BOOLEAN:
+                if (from == Kind.NUMBER) {
+                    code.op(POP2, -2);
+                    code.pushInt(1);
+                } else {
+                    code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "isTruthy", "(" + OBJ + ")Z"), 0);
+                }
+                break;
+            case NUMBER:
+                coerce(from, Kind.OBJECT, null);
+                loadConstant(operator);
+                code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "number", "(" + OBJ + TOKEN + ")D"), 0);
+                break;
+        }
+    }
+
+    /**
+     * Leaves both operands of a numeric operator as doubles on the stack.
+     * Both are evaluated before either is checked, like the interpreter does.
+     * @param expr
+     */
+    private void numberOperands(Expr.Binary expr) {
+        if (kindOf(expr.left) == Kind.NUMBER) {
+            compileAs(expr.left, Kind.NUMBER, expr.operator);
+            compileAs(expr.right, Kind.NUMBER, expr.operator);
+            return;
+        }
+        compileAs(expr.left, Kind.OBJECT, null);
+        if (kindOf(expr.right) == Kind.NUMBER) {
+            int right = code.newLocal(2);
+            compileAs(expr.right, Kind.NUMBER, expr.operator);
+            code.store(DSTORE, right);
+            coerce(Kind.OBJECT, Kind.NUMBER, expr.operator);
+            code.load(DLOAD, right);
+        } else {
+            int right = code.newLocal(1);
+            compileAs(expr.right, Kind.OBJECT, null);
+            code.store(ASTORE, right);
+            coerce(Kind.OBJECT, Kind.NUMBER, expr.operator);
+            code.load(ALOAD, right);
+            coerce(Kind.OBJECT, Kind.NUMBER, expr.operator);
+        }
+    }
+
+    /**
+     * Turns two doubles on the stack into a boolean.
+     * @param compare DCMPL or DCMPG, chosen so NaN compares false
+     * @param branchIfFalse
+     * @return BOOLEAN
+     */
+    private Kind comparison(int compare, int branchIfFalse) {
+        ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.op(compare, -3);
+        code.jump(branchIfFalse, isFalse, -1);
+        code.pushInt(1);
+        code.jump(GOTO, end, 0);
+        code.place(isFalse);
+        code.pushInt(0);
+        code.place(end);
+        return Kind.BOOLEAN;
+    }
+
+    private void negate() {
+        code.pushInt(1);
+        code.op(IXOR, -1);
+    }
+
+    /**
+     * Predicts the kind an expression compiles to without emitting anything.
+     * @param expr
+     * @return the kind.
+     */
+    private static Kind kindOf(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Double) return Kind.NUMBER;
+            if (value instanceof Boolean) return Kind.BOOLEAN;
+            return Kind.OBJECT;
+        }
+        if (expr instanceof Expr.Grouping)
+            return kindOf(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary)
+            return ((Expr.Unary) expr).operator.type == TokenType.MINUS ? Kind.NUMBER : Kind.BOOLEAN;
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS:
+                    return kindOf(binary.left) == Kind.NUMBER && kindOf(binary.right) == Kind.NUMBER ? Kind.NUMBER : Kind.OBJECT;
+                case MINUS: case STAR: case SLASH:
+                    return Kind.NUMBER;
+                default:
+                    return Kind.BOOLEAN;
+            }
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Spends fuel at a backward jump, see {@link Interpreter#tick}.
+     * @param line
+     */
+    private void tick(int line) {
+        code.load(ALOAD, INTERPRETER_SLOT);
+        if (line <= Short.MAX_VALUE) code.pushInt(line);
+        else code.ldc(writer.intConstant(line));
+        code.invoke(INVOKESTATIC, writer.methodRef(RUNTIME, "tick", "(" + INTERPRETER + "I)V"), -2);
+    }
+
+    /**
+     * Pushes an object of the compiler, a token or a node, kept in the k array of the compiled class.
+     * @param value
+     */
+    private void loadConstant(Object value) {
+        constants.add(value);
+        code.load(ALOAD, 0);
+        code.op2(GETFIELD, writer.fieldRef(className, "k", "[" + OBJ), 0);
+        code.pushInt(constants.size() - 1);
+        code.op(AALOAD, -1);
+        code.op2(CHECKCAST, writer.classRef(value.getClass().getName().replace('.', '/')), 0);
+    }
+
+    private Integer lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer slot = scopes.get(i).get(name);
+            if (slot != null) return slot;
+        }
+        return null;
+    }
+    // <== Helper Methods
+}
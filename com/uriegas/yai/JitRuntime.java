@@ -0,0 +1,120 @@
+package com.uriegas.yai;
+
+/**
+ * Helpers called from the code generated by the {@link JitCompiler}. <br>
+ * They mirror what the {@link Interpreter} does for the same operations so
+ * compiled functions behave (and fail) exactly like interpreted ones.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    /**
+     * Reads a global through the binding cached on the node, like the interpreter.
+     */
+    public static Object getGlobal(Interpreter interpreter, Expr.Variable expr) {
+        return interpreter.global(expr).value;
+    }
+
+    public static Object setGlobal(Interpreter interpreter, Expr.Assign expr, Object value) {
+        interpreter.global(expr).value = value;
+        return value;
+    }
+
+    /**
+     * Unboxes an operand of a binary numeric operator.
+     * @param value
+     * @param operator
+     * @return the number.
+     */
+    public static double number(Object value, Token operator) {
+        if (value instanceof Double) return (double) value;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    /**
+     * Unboxes the operand of an unary numeric operator.
+     * @param value
+     * @param operator
+     * @return the number.
+     */
+    public static double operand(Object value, Token operator) {
+        if (value instanceof Double) return (double) value;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    public static Object add(Interpreter interpreter, Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double)
+            return (double) left + (double) right;
+        if (left instanceof CharSequence && right instanceof CharSequence)
+            return interpreter.concat((CharSequence) left, (CharSequence) right, operator);
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    public static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    public static boolean isEqual(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    /**
+     * Equality of two unboxed numbers with the semantics of {@link Double#equals}.
+     */
+    public static boolean equal(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    public static void print(Interpreter interpreter, Object value) {
+        Interpreter.print(interpreter.out, value);
+    }
+
+    public static void print(Interpreter interpreter, double value) {
+        interpreter.out.println(value);
+    }
+
+    public static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        return interpreter.call(callee, arguments, paren);
+    }
+
+    /**
+     * Checks a call in tail position and leaves it pending for the caller's trampoline.
+     * @return {@link YaiFunction#TAIL_CALL}.
+     */
+    public static Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        YaiCallable target = Interpreter.checkCall(callee, arguments.length, paren);
+        interpreter.tick(paren.line);
+        interpreter.tailCallee = target;
+        interpreter.tailArguments = arguments;
+        return YaiFunction.TAIL_CALL;
+    }
+
+    /**
+     * @return whether a direct call can nest on the Java stack, a deeper one goes through {@link Interpreter#call}.
+     */
+    public static boolean direct(Interpreter interpreter) {
+        return !interpreter.isDeep(interpreter.depth + 1);
+    }
+
+    /**
+     * Counts a direct call, see {@link Interpreter#enter}.
+     */
+    public static void enter(Interpreter interpreter, Token paren) {
+        interpreter.enter(paren);
+    }
+
+    /**
+     * Spends fuel at a loop iteration or a self tail call, see {@link Interpreter#tick}.
+     */
+    public static void tick(Interpreter interpreter, int line) {
+        interpreter.tick(line);
+    }
+
+    public static void exit(Interpreter interpreter) {
+        interpreter.depth--;
+    }
+
+    public static Object complete(Interpreter interpreter, Object result) {
+        return YaiFunction.complete(interpreter, result);
+    }
+}
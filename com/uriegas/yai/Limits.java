@@ -0,0 +1,104 @@
+package com.uriegas.yai;
+
+/**
+ * Bounds on what one script run may do, so an untrusted script can't hold a thread forever. <br>
+ * Fuel counts loop iterations and calls (tail calls included), the work that isn't bounded
+ * by the size of the program. Running out of fuel or time raises a {@link RuntimeError},
+ * reported like any other: the script stops and its context can run the next one. <br>
+ * Memory is per context, not per script: globals kept between evaluations still count,
+ * see {@link Memory} for what is measured. The call depth doesn't depend on the stack
+ * of the thread that runs the script, see {@link FrameStack}. <br>
+ * The defaults come from the {@code yai.max.fuel}, {@code yai.max.time} (milliseconds),
+ * {@code yai.max.depth} and {@code yai.max.memory} (bytes) system properties.
+ */
+public final class Limits {
+    /** No fuel, time or memory limit, only the default call depth. */
+    public static final Limits NONE = new Limits(0, 0, Interpreter.MAX_DEPTH);
+    /** Limits set by the system properties. */
+    static final Limits DEFAULT = new Limits(Long.getLong("yai.max.fuel", 0), Long.getLong("yai.max.time", 0),
+            Interpreter.MAX_DEPTH, Long.getLong("yai.max.memory", 0));
+
+    final long fuel;
+    final long timeMillis;
+    final int maxDepth;
+    final long maxMemory;
+
+    /**
+     * Limits without a memory limit.
+     * @param fuel loop iterations and calls a script may run, 0 for no limit
+     * @param timeMillis wall clock time a script may run, 0 for no limit
+     * @param maxDepth maximum number of nested calls
+     */
+    public Limits(long fuel, long timeMillis, int maxDepth) {
+        this(fuel, timeMillis, maxDepth, 0);
+    }
+
+    /**
+     * @param fuel loop iterations and calls a script may run, 0 for no limit
+     * @param timeMillis wall clock time a script may run, 0 for no limit
+     * @param maxDepth maximum number of nested calls
+     * @param maxMemory approximate bytes of strings and environments a context may hold, 0 for no limit
+     */
+    public Limits(long fuel, long timeMillis, int maxDepth, long maxMemory) {
+        if (fuel < 0 || timeMillis < 0 || maxDepth < 1 || maxMemory < 0)
+            throw new IllegalArgumentException("Invalid limits: fuel " + fuel + ", time " + timeMillis + " ms, depth "
+                    + maxDepth + ", memory " + maxMemory);
+        this.fuel = fuel;
+        this.timeMillis = timeMillis;
+        this.maxDepth = maxDepth;
+        this.maxMemory = maxMemory;
+    }
+
+    @Override
+    public String toString() {
+        return "Limits[fuel=" + fuel + ", time=" + timeMillis + "ms, depth=" + maxDepth + ", memory=" + maxMemory + "]";
+    }
+
+    /**
+     * Hands out fuel to an {@link Interpreter} or a {@link VM} in slices. <br>
+     * They count a slice down in a field of their own, one decrement and one test per
+     * loop iteration or call, and only come back here when it runs out:
+     * that is when the total fuel and the clock are checked.
+     */
+    static final class Meter {
+        /** Ticks between two reads of the clock when there is a time limit. */
+        static final int SLICE = 1 << 12;
+
+        private final Limits limits;
+        private long remaining; //Fuel not handed out yet
+        private long deadline; //System.nanoTime() value
+
+        Meter(Limits limits) {
+            this.limits = limits;
+        }
+
+        /**
+         * Starts the budget of a script.
+         */
+        void start() {
+            remaining = limits.fuel == 0 ? Long.MAX_VALUE : limits.fuel;
+            deadline = System.nanoTime() + limits.timeMillis * 1_000_000;
+        }
+
+        /**
+         * Called when the last slice ran out.
+         * @param line where the script is, for the error
+         * @return the next slice.
+         * @throws RuntimeError if the fuel or the time is over
+         */
+        long refuel(int line) {
+            if (remaining == 0)
+                throw new RuntimeError(line, "Execution budget of " + limits.fuel + " loop iterations and calls exhausted.");
+            if (limits.timeMillis == 0) {
+                long slice = remaining;
+                remaining = 0;
+                return slice;
+            }
+            if (System.nanoTime() - deadline > 0)
+                throw new RuntimeError(line, "Time limit of " + limits.timeMillis + " ms exceeded.");
+            long slice = Math.min(remaining, SLICE);
+            remaining -= slice;
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Approximate memory accounting of the values a script creates: strings and {@link Rope}s
+ * built by concatenation and local environments. Literals belong to the program, they only count
+ * while a variable holds them. <br>
+ * Allocations are charged as they happen, before the object is created, but nothing
+ * tells when a string becomes garbage. So when the charges cross a threshold the values
+ * still reachable from the roots (globals, live environments, the VM's stack) are recounted
+ * and the garbage is forgotten. The next threshold is set from what the recount found, like a heap:
+ * twice the usage without a limit; half the usage (at least {@link #SLACK}) above it with one,
+ * but never past the limit. So recounts get rarer as the usage grows instead of coming back
+ * on every allocation once the charges reach the limit. Only a recount that doesn't fit
+ * under the limit raises a {@link RuntimeError}. <br>
+ * Sizes are estimates of what the JVM needs, a string counts once however many variables hold it.
+ */
+final class Memory {
+    /** Threshold of an unlimited meter before the first recount. */
+    private static final long INITIAL_THRESHOLD = 1 << 20;
+    /** Least room between the usage and the next recount of a limited meter. */
+    static final long SLACK = 1 << 16;
+
+    private final long limit; //0 for none
+    private final Consumer<Memory> roots; //Retains every root, see recount
+    private long used;
+    private long peak;
+    private long threshold;
+    private Set<Object> seen; //Strings already retained by the recount in progress
+    long recounts = 0; //Done so far, for the tests
+
+    /**
+     * @param limit bytes a context may hold, 0 for no limit
+     * @param roots calls {@link #retain} on everything the script can still reach
+     */
+    Memory(long limit, Consumer<Memory> roots) {
+        this.limit = limit;
+        this.roots = roots;
+        this.threshold = limit > 0 ? Math.min(limit, INITIAL_THRESHOLD) : INITIAL_THRESHOLD;
+    }
+
+    boolean isLimited() {
+        return limit > 0;
+    }
+
+    /**
+     * Recounts what is reachable now.
+     * @return the bytes held.
+     */
+    long used() {
+        recount(0, 0);
+        return used;
+    }
+
+    /**
+     * @return the most bytes charged at once. It is an upper bound, garbage counts
+     * until the next recount, but it never goes over the limit.
+     */
+    long peak() {
+        return peak;
+    }
+
+    // ==> Charges
+    /**
+     * Charges an allocation that is about to happen.
+     * @param bytes
+     * @param line where the script is, for the error
+     * @throws RuntimeError if the context would go over its limit
+     */
+    void allocate(long bytes, int line) {
+        used += bytes;
+        if (used > threshold)
+            recount(bytes, line);
+        if (used > peak)
+            peak = used;
+    }
+
+    /**
+     * Gives back memory known to be free, like the environment of a finished call.
+     * @param bytes
+     */
+    void release(long bytes) {
+        used -= bytes;
+    }
+
+    /**
+     * @param length
+     * @return estimated bytes of a string.
+     */
+    static long string(long length) {
+        return 40 + 2 * length; //Object and array headers, UTF-16 at worst
+    }
+
+    /**
+     * @param slots
+     * @return estimated bytes of a local environment, unboxed numbers included.
+     */
+    static long environment(int slots) {
+        return 56 + 16L * slots;
+    }
+    // <== Charges
+
+    // ==> Recount
+    /**
+     * Replaces the charges with what is still reachable.
+     * @param pending bytes of the allocation being charged, not reachable yet
+     * @param line
+     */
+    private void recount(long pending, int line) {
+        used = 0;
+        recounts++;
+        seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            roots.accept(this);
+        } finally {
+            seen = null;
+        }
+        if (limit > 0 && used + pending > limit) //Not allocated then
+            throw new RuntimeError(line, "Memory limit of " + limit + " bytes exceeded.");
+        used += pending;
+        if (limit > 0)
+            threshold = Math.min(limit, used + Math.max(used / 2, SLACK));
+        else
+            threshold = Math.max(INITIAL_THRESHOLD, 2 * used);
+    }
+
+    /**
+     * Counts a reachable value during a recount.
+     * @param value
+     */
+    void retain(Object value) {
+        if (value instanceof String)
+            retainChars(value, ((String) value).length());
+        else if (value instanceof Rope)
+            ((Rope) value).retain(this);
+    }
+
+    /**
+     * Counts characters that can be shared, once.
+     * @param owner the String or the builder holding them
+     * @param length
+     */
+    void retainChars(Object owner, int length) {
+        if (seen.add(owner))
+            used += string(length);
+    }
+
+    /**
+     * Counts a reachable local environment (not its values, see {@link Environment#retain}).
+     * @param slots
+     */
+    void retainEnvironment(int slots) {
+        used += environment(slots);
+    }
+    // <== Recount
+}
@@ -0,0 +1,115 @@
+package com.uriegas.yai;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Counters and timings of every context in the JVM, published through JMX as
+ * {@code com.uriegas.yai:type=Metrics} so they can be read next to the JVM's own metrics. <br>
+ * Interpreters count in plain fields while a script runs and {@link Context} adds them
+ * here once the script ends, so the hot paths never touch shared state.
+ */
+public final class Metrics implements MetricsMXBean {
+    /** The instance registered in the platform MBean server. */
+    static final Metrics INSTANCE = new Metrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("com.uriegas.yai:type=Metrics"));
+        } catch (JMException | SecurityException e) {
+            //Registered by another class loader, or not allowed: the counters still work
+        }
+    }
+
+    private final LongAdder scripts = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder environments = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder compileErrors = new LongAdder();
+    private final Histogram parseTime = new Histogram();
+    private final Histogram executionTime = new Histogram();
+
+    private Metrics() {}
+
+    /**
+     * Snapshot of a histogram of durations, in milliseconds.
+     * Percentiles are the upper bound of a power of two bucket.
+     */
+    public static final class Timing {
+        private final long count;
+        private final double mean, p50, p99, max;
+
+        Timing(Histogram histogram) {
+            this.count = histogram.count();
+            this.mean = histogram.meanMillis();
+            this.p50 = histogram.percentileMillis(0.5);
+            this.p99 = histogram.percentileMillis(0.99);
+            this.max = histogram.maxMillis();
+        }
+
+        public long getCount() { return count; }
+        public double getMeanMillis() { return mean; }
+        public double getP50Millis() { return p50; }
+        public double getP99Millis() { return p99; }
+        public double getMaxMillis() { return max; }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms", count, mean, p50, p99, max);
+        }
+    }
+
+    // ==> Recording
+    /**
+     * A source went through the front end.
+     * @param nanos time spent scanning, parsing, resolving and optimizing it
+     * @param failed true if it had compile errors
+     */
+    void parsed(long nanos, boolean failed) {
+        parseTime.record(nanos);
+        if (failed) compileErrors.increment();
+    }
+
+    /**
+     * A script finished running.
+     * @param nanos
+     * @param statements statements executed by the tree-walking interpreter
+     * @param calls
+     * @param environments
+     * @param failed true if it ended with a runtime error
+     */
+    void ran(long nanos, long statements, long calls, long environments, boolean failed) {
+        scripts.increment();
+        executionTime.record(nanos);
+        this.statements.add(statements);
+        this.calls.add(calls);
+        this.environments.add(environments);
+        if (failed) runtimeErrors.increment();
+    }
+    // <== Recording
+
+    // ==> MXBean
+    @Override public long getScriptsRun() { return scripts.sum(); }
+    @Override public long getStatementsExecuted() { return statements.sum(); }
+    @Override public long getFunctionCalls() { return calls.sum(); }
+    @Override public long getEnvironmentsAllocated() { return environments.sum(); }
+    @Override public long getRuntimeErrors() { return runtimeErrors.sum(); }
+    @Override public long getCompileErrors() { return compileErrors.sum(); }
+    @Override public Timing getParseTime() { return new Timing(parseTime); }
+    @Override public Timing getExecutionTime() { return new Timing(executionTime); }
+
+    @Override
+    public void reset() {
+        scripts.reset();
+        statements.reset();
+        calls.reset();
+        environments.reset();
+        runtimeErrors.reset();
+        compileErrors.reset();
+        parseTime.reset();
+        executionTime.reset();
+    }
+    // <== MXBean
+}
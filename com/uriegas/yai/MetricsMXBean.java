@@ -0,0 +1,17 @@
+package com.uriegas.yai;
+
+/**
+ * Management interface of {@link Metrics}, registered as {@code com.uriegas.yai:type=Metrics}.
+ * Counters add up every context of the JVM since it started (or since {@link #reset}).
+ */
+public interface MetricsMXBean {
+    long getScriptsRun();
+    long getStatementsExecuted();
+    long getFunctionCalls();
+    long getEnvironmentsAllocated();
+    long getRuntimeErrors();
+    long getCompileErrors();
+    Metrics.Timing getParseTime();
+    Metrics.Timing getExecutionTime();
+    void reset();
+}
@@ -0,0 +1,110 @@
+package com.uriegas.yai;
+
+/**
+ * Formats numbers the way print shows them: {@link Double#toString} without a trailing {@code .0}. <br>
+ * The digits are written into a caller's buffer, so an {@link OutputSink} can print a number
+ * without creating any String. Two cases cover what scripts usually print and are
+ * formatted directly, the rest goes through {@link Double#toString}:
+ * <ul>
+ * <li>Integers below 10^7 are written as long digits.</li>
+ * <li>Other numbers in [10^-3, 10^7) with at most 15 significant digits: the shortest decimal
+ * that parses back to the same double is searched by adding fraction digits. With 15 digits
+ * or less there is at most one decimal of each length that does, so it is
+ * the one {@link Double#toString} prints too.</li>
+ * </ul>
+ */
+final class Numbers {
+    /** Buffer size {@link #format} needs. */
+    static final int MAX_LENGTH = 32;
+    /** Bound of the plain notation, {@link Double#toString} uses an exponent outside [10^-3, 10^7). */
+    private static final double PLAIN_MIN = 1e-3, PLAIN_MAX = 1e7;
+    /** Bound of the digits searched, 15 significant digits. */
+    private static final long MAX_DIGITS = 1_000_000_000_000_000L;
+    /** Exact powers of ten, enough fraction digits for 15 significant digits from 10^-3. */
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+        1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private Numbers() {}
+
+    /**
+     * @param value
+     * @return the number as print shows it.
+     */
+    static String toString(double value) {
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, format(value, buffer));
+    }
+
+    /**
+     * Writes a number as print shows it.
+     * @param value
+     * @param buffer at least {@link #MAX_LENGTH} chars
+     * @return the number of chars written.
+     */
+    static int format(double value, char[] buffer) {
+        double magnitude = Math.abs(value);
+        if (magnitude < PLAIN_MAX) {
+            if (value == (long) value) {
+                if (value == 0 && Double.doubleToRawLongBits(value) != 0) { //-0.0
+                    buffer[0] = '-';
+                    buffer[1] = '0';
+                    return 2;
+                }
+                return writeLong((long) value, buffer, 0, 0);
+            }
+            if (magnitude >= PLAIN_MIN) {
+                for (int fraction = 1; fraction < POWERS.length; fraction++) {
+                    long digits = Math.round(magnitude * POWERS[fraction]);
+                    if (digits >= MAX_DIGITS)
+                        break;
+                    if (digits / POWERS[fraction] == magnitude) { //Both exact, the division rounds like parsing
+                        int length = 0;
+                        if (value < 0)
+                            buffer[length++] = '-';
+                        return writeLong(digits, buffer, length, fraction);
+                    }
+                }
+            }
+        }
+        String text = Double.toString(value);
+        int length = text.endsWith(".0") ? text.length() - 2 : text.length();
+        text.getChars(0, length, buffer, 0);
+        return length;
+    }
+
+    /**
+     * Writes digits, with a decimal point before the last ones.
+     * @param digits not negative unless there is no fraction
+     * @param buffer
+     * @param start where the number goes
+     * @param fraction digits after the point, the number is padded with zeros to have one before it
+     * @return the end of the number.
+     */
+    private static int writeLong(long digits, char[] buffer, int start, int fraction) {
+        if (digits < 0) {
+            buffer[start++] = '-';
+            digits = -digits; //Not Long.MIN_VALUE, the number is below 10^7
+        }
+        int length = Math.max(countDigits(digits), fraction + 1);
+        int end = start + length + (fraction > 0 ? 1 : 0);
+        int position = end;
+        for (int i = 0; i < length; i++) {
+            if (i == fraction && fraction > 0)
+                buffer[--position] = '.';
+            buffer[--position] = (char) ('0' + digits % 10);
+            digits /= 10;
+        }
+        return end;
+    }
+
+    private static int countDigits(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,42 @@
+package com.uriegas.yai;
+
+/**
+ * Instruction set of the {@link VM}. <br>
+ * Operands follow the opcode in the {@link Chunk}, u16 operands are big endian.
+ */
+final class OpCode {
+    static final byte CONSTANT      = 0;  // u16 constant index
+    static final byte NULL          = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte POP           = 4;
+    static final byte GET_LOCAL     = 5;  // u16 slot
+    static final byte SET_LOCAL     = 6;  // u16 slot, leaves the value on the stack
+    static final byte STORE_LOCAL   = 7;  // u16 slot, pops the value
+    static final byte GET_GLOBAL    = 8;  // u16 name constant
+    static final byte SET_GLOBAL    = 9;  // u16 name constant, leaves the value on the stack
+    static final byte DEFINE_GLOBAL = 10; // u16 name constant, pops the value
+    static final byte EQUAL         = 11;
+    static final byte NOT_EQUAL     = 12;
+    static final byte GREATER       = 13;
+    static final byte GREATER_EQUAL = 14;
+    static final byte LESS          = 15;
+    static final byte LESS_EQUAL    = 16;
+    static final byte ADD           = 17;
+    static final byte SUBTRACT      = 18;
+    static final byte MULTIPLY      = 19;
+    static final byte DIVIDE        = 20;
+    static final byte NOT           = 21;
+    static final byte NEGATE        = 22;
+    static final byte PRINT         = 23;
+    static final byte JUMP          = 24; // u16 forward offset
+    static final byte JUMP_IF_FALSE = 25; // u16 forward offset, keeps the condition
+    static final byte JUMP_IF_TRUE  = 26; // u16 forward offset, keeps the condition
+    static final byte POP_JUMP_IF_FALSE = 27; // u16 forward offset, pops the condition
+    static final byte LOOP          = 28; // u16 backward offset
+    static final byte CALL          = 29; // u8 argument count
+    static final byte RETURN        = 30;
+    static final byte TAIL_CALL     = 31; // u8 argument count, replaces the current frame
+
+    private OpCode() {}
+}
@@ -0,0 +1,291 @@
+package com.uriegas.yai;
+
+import java.util.*;
+
+/**
+ * Optimization pass over the resolved tree. <br>
+ * Folds operators whose operands are literals into a single {@link Expr.Literal},
+ * applies algebraic identities that can't change the result, removes groupings
+ * (the tree already encodes precedence) and prunes branches and loops whose
+ * condition is constant. <br>
+ * Nothing that would fail at runtime is folded: {@code "a" - 1} is left alone so it
+ * still raises the same error when (and only if) it is executed. <br>
+ * It runs after the {@link Resolver} so errors in dead code are still reported,
+ * rebuilt nodes keep the slots the Resolver assigned.
+ */
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private static final Stmt.Block EMPTY = new Stmt.Block(Collections.emptyList());
+
+    /**
+     * Optimizes a whole program.
+     * @param statements
+     * @return the optimized statements.
+     */
+    static List<Stmt> optimize(List<Stmt> statements) {
+        return new Optimizer().optimizeAll(statements);
+    }
+
+    // ==> Statements
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        Stmt.Block block = new Stmt.Block(statements);
+        block.locals = stmt.locals;
+        return block;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression instanceof Expr.Literal) return null; //No effect
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        if (body == stmt.body) return stmt;
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.locals = stmt.locals;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) { //Only one branch can run
+            if (Interpreter.isTruthy(((Expr.Literal) condition).value))
+                return optimize(stmt.thenBranch);
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+        Stmt thenBranch = branch(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+            return stmt;
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).value))
+            return null; //Never runs
+        Stmt body = branch(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator, ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (folded != null) return folded;
+        }
+        Expr simplified = simplify(left, expr.operator, right);
+        if (simplified != null) return simplified;
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+        return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression); //Precedence is already in the shape of the tree
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Expr.Literal) { //The left operand decides which value is produced
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            if (expr.operator.type == TokenType.OR)
+                return truthy ? left : right;
+            return truthy ? right : left;
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            if (expr.operator.type == TokenType.BANG)
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            if (value instanceof Double)
+                return new Expr.Literal(-(double) value);
+        } else if (expr.operator.type == TokenType.MINUS && right instanceof Expr.Unary
+                && ((Expr.Unary) right).operator.type == TokenType.MINUS && ((Expr.Unary) right).right.numeric) {
+            return ((Expr.Unary) right).right; //-(-x) is x
+        }
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+    // <== Expressions
+
+    // ==> Helper Methods
+    private Stmt optimize(Stmt stmt) {
+        Stmt result = stmt.accept(this);
+        if (result != null && result != EMPTY && result.line == 0) //Rebuilt, keep the line of the original
+            result.line = stmt.line;
+        return result;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * Optimizes a list of statements, dropping the ones that were removed.
+     * @param statements
+     * @return the same list if nothing changed.
+     */
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            changed |= result != statement;
+            if (result != null)
+                optimized.add(result);
+        }
+        return changed ? optimized : statements;
+    }
+
+    /**
+     * Optimizes a statement that can't be removed, like the body of a loop.
+     * @param stmt
+     * @return the optimized statement or an empty block.
+     */
+    private Stmt branch(Stmt stmt) {
+        Stmt result = optimize(stmt);
+        return result == null ? EMPTY : result;
+    }
+
+    /**
+     * Evaluates an operator on two literals like the {@link Interpreter} would.
+     * @param operator
+     * @param left
+     * @param right
+     * @return the literal or null if the operation would fail at runtime.
+     */
+    private static Expr fold(Token operator, Object left, Object right) {
+        if (operator.type == TokenType.EQUAL_EQUAL)
+            return new Expr.Literal(Interpreter.isEqual(left, right));
+        if (operator.type == TokenType.BANG_EQUAL)
+            return new Expr.Literal(!Interpreter.isEqual(left, right));
+        if (operator.type == TokenType.PLUS && left instanceof String && right instanceof String)
+            return new Expr.Literal((String) left + (String) right);
+        if (!(left instanceof Double && right instanceof Double))
+            return null;
+        double a = (double) left, b = (double) right;
+        switch (operator.type) {
+            case PLUS:          return new Expr.Literal(a + b);
+            case MINUS:         return new Expr.Literal(a - b);
+            case STAR:          return new Expr.Literal(a * b);
+            case SLASH:         return new Expr.Literal(a / b);
+            case GREATER:       return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS:          return new Expr.Literal(a < b);
+            case LESS_EQUAL:    return new Expr.Literal(a <= b);
+            default:            return null;
+        }
+    }
+
+    /**
+     * Identities that hold for every double: x * 1, 1 * x, x / 1 and x - 0 are x.
+     * The other operand must be numeric so dropping the operator can't hide a type error.
+     * x + 0 is not one of them (-0 + 0 is 0).
+     * @param left
+     * @param operator
+     * @param right
+     * @return the simplified expression or null.
+     */
+    private static Expr simplify(Expr left, Token operator, Expr right) {
+        switch (operator.type) {
+            case STAR:
+                if (isConstant(right, 1) && left.numeric) return left;
+                if (isConstant(left, 1) && right.numeric) return right;
+                return null;
+            case SLASH:
+                return isConstant(right, 1) && left.numeric ? left : null;
+            case MINUS:
+                return isConstant(right, 0) && left.numeric ? left : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param expr
+     * @param value
+     * @return true if the expression is exactly that number (-0 is not 0).
+     */
+    private static boolean isConstant(Expr expr, double value) {
+        return expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double
+                && Double.doubleToLongBits((double) ((Expr.Literal) expr).value) == Double.doubleToLongBits(value);
+    }
+    // <== Helper Methods
+}
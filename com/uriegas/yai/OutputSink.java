@@ -0,0 +1,53 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Receives what the print statements of a {@link Context} write. <br>
+ * Hosts can capture the output directly, without encoding it to bytes,
+ * or use {@link #writingTo} to get it buffered into a stream. The context flushes its sink
+ * when a script ends, before reporting an error and on {@link Context#flush}.
+ */
+public interface OutputSink {
+    /**
+     * The text of one print statement.
+     * @param line without the line separator
+     */
+    void println(String line);
+
+    /**
+     * The text of a print statement printing a number. Sinks that write characters
+     * can override it to format the number into a buffer of their own instead of a String.
+     * @param number
+     */
+    default void println(double number) {
+        println(Numbers.toString(number));
+    }
+
+    /**
+     * Makes everything printed so far visible.
+     */
+    default void flush() {}
+
+    /**
+     * Sink encoding the output with the platform's charset, like {@link System#out} does.
+     * @param out
+     * @return the sink.
+     */
+    static OutputSink writingTo(OutputStream out) {
+        return writingTo(out, Charset.defaultCharset());
+    }
+
+    /**
+     * Sink buffering the output ({@code yai.output.buffer} chars, 64K by default)
+     * and writing it to a stream only when the buffer fills up or the sink is flushed,
+     * so printing doesn't cost a system call per line.
+     * @param out
+     * @param charset
+     * @return the sink.
+     */
+    static OutputSink writingTo(OutputStream out, Charset charset) {
+        return new BufferedOutput(out, charset);
+    }
+}
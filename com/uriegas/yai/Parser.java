@@ -5,7 +5,9 @@ import static com.uriegas.yai.TokenType.*;
 
 /**
  * Recursive Descendent Parser: top down parser.
- * Takes a list of tokens and applies the production rules to it. <br>
+ * Takes the tokens one at a time and applies the production rules to them,
+ * it reads them by index from the {@link Scanner}'s batch and asks for the next batch at its end. <br>
+ * A {@link Token} object is made only for the tokens the tree keeps, and for the errors. <br>
  * Terminal = a token.
  * Non-terminal = a production rule.
  * | = if statement.
@@ -14,11 +16,20 @@ import static com.uriegas.yai.TokenType.*;
  */
 public class Parser {
     private static class ParseError extends RuntimeException {}
-    private final List<Token> tokens;
-    private int current = 0;
+    private final Scanner scanner;
+    private final Tokens tokens;
+    private final ErrorReporter reporter;
+    private int current = 0; //Index of the current token in the batch, the previous one is before it
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    /**
+     * @param scanner scanning the tokens on demand
+     * @param reporter receives the syntax errors
+     */
+    Parser(Scanner scanner, ErrorReporter reporter) {
+        this.scanner = scanner;
+        this.tokens = scanner.tokens;
+        this.reporter = reporter;
+        scanner.scan();
     }
 
     /**
@@ -35,10 +46,11 @@ public class Parser {
     // ==> Production Rules
     private Stmt declaration() { // declaration -> varDecl | funcDecl | statement
         try {
+            int line = tokens.lines[current];
             if (match(VAR))
-                return varDeclaration();
+                return at(line, varDeclaration());
             if (match(FUN))
-                return funDeclaration();
+                return at(line, funDeclaration());
             return statement();
         } catch (ParseError e) {
             synchronize();
@@ -47,7 +59,8 @@ public class Parser {
     }
 
     private Stmt varDeclaration() { // varDecl -> "var" IDENTIFIER ("=" expression)? ";"
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
         // consume(EQUAL, "Expect '=' after variable name.");
         Expr initializer = null;
         if(match(EQUAL)){
@@ -58,14 +71,16 @@ public class Parser {
     }
 
     private Stmt.Function funDeclaration() { // funcDecl -> "def" IDENTIFIER "(" parameters? ")" block
-        Token name = consume(IDENTIFIER, "Expect function name.");
+        consume(IDENTIFIER, "Expect function name.");
+        Token name = previous();
         consume(LEFT_PAREN, "Expect '(' after function name.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
             do {
                 if (parameters.size() >= 8)
                     error(peek(), "Cannot have more than 8 parameters.");
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(COMMA));
         }
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
@@ -75,18 +90,20 @@ public class Parser {
     }
 
     private Stmt statement() { // stmt -> printStmnt | ifStmt | block | exprStmnt | whileStmnt | forStmnt | returnStmnt
-        if (match(PRINT)) return printStatement();
-        if(match(IF)) return ifStatement();
-        if(match(WHILE)) return whileStatement();
-        if(match(FOR)) return forStatement();
-        if(match(RETURN)) return returnStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
-        return expressionStatement();
+        int line = tokens.lines[current];
+        if (match(PRINT)) return at(line, printStatement());
+        if(match(IF)) return at(line, ifStatement());
+        if(match(WHILE)) return at(line, whileStatement());
+        if(match(FOR)) return at(line, forStatement());
+        if(match(RETURN)) return at(line, returnStatement());
+        if (match(LEFT_BRACE)) return at(line, new Stmt.Block(block()));
+        return at(line, expressionStatement());
     }
 
     private Stmt forStatement() { // forStmnt -> "for" "(" (varDecl | exprStmt | ";") ";" expression? ";" expression? ")" stmt
         // Note: For for statements we don't create a new node type neither semantic analysis
         //       we only descompose it (syntactically) into an initializer, condition and incrementor.
+        int line = tokens.lines[current - 1];
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
         
         // ==> Initializer
@@ -94,9 +111,9 @@ public class Parser {
         if(match(SEMICOLON)){
             initializer = null;
         }else if(match(VAR)){
-            initializer = varDeclaration();
+            initializer = at(line, varDeclaration());
         }else{
-            initializer = expressionStatement();
+            initializer = at(line, expressionStatement());
         }
         // <== Initializer
 
@@ -110,6 +127,7 @@ public class Parser {
 
         // ==> Incrementor
         Expr incrementor = null;
+        int incrementorLine = tokens.lines[current];
         if(!check(RIGHT_PAREN)){
             incrementor = expression();
         }
@@ -119,12 +137,12 @@ public class Parser {
 
         // ==> Syntactic descomposition
         if(incrementor != null){
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(incrementor)));
+            body = at(line, new Stmt.Block(Arrays.asList(body, at(incrementorLine, new Stmt.Expression(incrementor)))));
         }
         if(condition == null){
             condition = new Expr.Literal(true);
         }
-        body = new Stmt.While(condition, body);
+        body = at(line, new Stmt.While(condition, body));
         if(initializer != null){
             body = new Stmt.Block(Arrays.asList(initializer, body));
         }
@@ -187,13 +205,13 @@ public class Parser {
     private Expr assignment() { // assignment -> IDENTIFIER "=" assignment | logic_or
         Expr expr = or();
         if (match(EQUAL)) {
-            Token equals = previous();
+            int line = tokens.lines[current - 1]; //Of the '=', the batch may be gone after the value
             Expr value = assignment();
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable) expr).name;
                 return new Expr.Assign(name, value);
             }
-            error(equals, "Invalid assignment target.");
+            error(new Token(EQUAL, "=", null, line), "Invalid assignment target.");
         }
         return expr;
     }
@@ -277,7 +295,8 @@ public class Parser {
                 arguments.add(expression());
             } while (match(COMMA));
         }
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
         return new Expr.Call(callee, paren, arguments);
     }
 
@@ -293,7 +312,7 @@ public class Parser {
     }
 
     private Expr primary() { // primary -> NUMBER | STRING | IDENTIFIER | "false" | "true" | "null" | "(" expression ")"
-        if (match(NUMBER, STRING)) return new Expr.Literal(previous().literal);
+        if (match(NUMBER, STRING)) return new Expr.Literal(tokens.values[current - 1]);
         if (match(IDENTIFIER)) return new Expr.Variable(previous());
         if (match(FALSE)) return new Expr.Literal(false);
         if (match(TRUE)) return new Expr.Literal(true);
@@ -309,19 +328,32 @@ public class Parser {
 
     // ==> Helper Methods
     /**
-     * Check if the next token is of the expected type and return it, otherwise throw an error.
+     * Records the line a statement starts on.
+     * @param line
+     * @param stmt
+     * @return the statement.
+     */
+    private static Stmt at(int line, Stmt stmt) {
+        stmt.line = line;
+        return stmt;
+    }
+
+    /**
+     * Check if the next token is of the expected type and advance, otherwise throw an error.
      * @param type
      * @param message
-     * @return the token.
      * @throws ParseError
      */
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Yai.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -329,8 +361,8 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
-            switch (peek().type) {
+            if (tokens.type(current - 1) == SEMICOLON) return;
+            switch (tokens.type(current)) {
                 case FUN:
                 case VAR:
                 case FOR:
@@ -367,17 +399,17 @@ public class Parser {
      */
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
     /**
-     * Check if the current token is of the given type and advance.
-     * @param type
-     * @return
+     * Move to the next token, scanning the next batch at the end of this one.
      */
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if (!isAtEnd() && ++current == tokens.count) {
+            scanner.scan(); //Keeps the current token as the previous one
+            current = 1;
+        }
     }
 
     /**
@@ -385,23 +417,23 @@ public class Parser {
      * @return true if we are at the end of the tokens.
      */
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
     /**
-     * Get the current token.
+     * Make the current token, for the tree or an error.
      * @return
      */
     private Token peek() {
-        return tokens.get(current);
+        return scanner.token(current);
     }
 
     /**
-     * Get the previous token.
+     * Make the previous token, for the tree or an error.
      * @return the previous token.
      */
     private Token previous() {
-        return tokens.get(current - 1);
+        return scanner.token(current - 1);
     }
     // <== Helper Methods
 }
@@ -0,0 +1,183 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Records where a context spends its time: calls, inclusive and exclusive time per function,
+ * how many statements run on each line, and the call tree for flame graphs. <br>
+ * The {@link Interpreter} only calls it when profiling is on (its profiler field is null otherwise)
+ * and functions of a profiled context are never compiled, so every statement is counted. <br>
+ * Inclusive time only counts the outermost activation of a function, so recursion isn't counted twice.
+ */
+final class Profiler {
+    /**
+     * Totals of one function declaration.
+     */
+    private static final class Function {
+        final String name;
+        long calls;
+        long inclusive; //Nanoseconds
+        long exclusive;
+        int active; //Activations on the stack
+
+        Function(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A path in the call tree, for collapsed stacks.
+     */
+    private static final class Node {
+        final Function function;
+        final Map<Function, Node> children = new HashMap<>();
+        long self; //Exclusive nanoseconds spent on this path
+
+        Node(Function function) {
+            this.function = function;
+        }
+
+        Node child(Function function) {
+            return children.computeIfAbsent(function, Node::new);
+        }
+    }
+
+    private final Map<Object, Function> functions = new HashMap<>(); //By declaration
+    private final Function script = new Function("<script>");
+    private final Node root = new Node(script);
+    private long[] lines = new long[64];
+
+    // ==> Stack of running calls, the script is at index 0
+    private Node[] nodes = new Node[64];
+    private long[] starts = new long[64];
+    private long[] children = new long[64]; //Time spent in callees
+    private int top = 0;
+    // <== Stack
+
+    Profiler() {
+        nodes[0] = root;
+        starts[0] = System.nanoTime();
+        script.calls = 1;
+        script.active = 1;
+    }
+
+    /**
+     * Counts a statement.
+     * @param line
+     */
+    void line(int line) {
+        if (line >= lines.length)
+            lines = Arrays.copyOf(lines, Math.max(line + 1, lines.length * 2));
+        lines[line]++;
+    }
+
+    /**
+     * A call starts.
+     * @param callee
+     */
+    void enter(YaiCallable callee) {
+        Function function = function(callee);
+        if (++top == nodes.length) {
+            nodes = Arrays.copyOf(nodes, top * 2);
+            starts = Arrays.copyOf(starts, top * 2);
+            children = Arrays.copyOf(children, top * 2);
+        }
+        nodes[top] = nodes[top - 1].child(function);
+        children[top] = 0;
+        function.calls++;
+        function.active++;
+        starts[top] = System.nanoTime();
+    }
+
+    /**
+     * The innermost call ends, normally or not.
+     */
+    void exit() {
+        long elapsed = System.nanoTime() - starts[top];
+        long self = elapsed - children[top];
+        Node node = nodes[top];
+        node.self += self;
+        node.function.exclusive += self;
+        if (--node.function.active == 0)
+            node.function.inclusive += elapsed;
+        nodes[top--] = null;
+        children[top] += elapsed;
+    }
+
+    /**
+     * The innermost call ended in a tail call, the callee takes its place.
+     * @param callee
+     */
+    void tailCall(YaiCallable callee) {
+        exit();
+        enter(callee);
+    }
+
+    private Function function(YaiCallable callee) {
+        if (!(callee instanceof YaiFunction))
+            return functions.computeIfAbsent(callee, c -> new Function(c.toString()));
+        Stmt.Function declaration = ((YaiFunction) callee).declaration;
+        return functions.computeIfAbsent(declaration, d -> new Function(declaration.name.lexeme + ":" + declaration.name.line));
+    }
+
+    /**
+     * Stops the clock of the script, later calls are not expected.
+     */
+    private void finish() {
+        while (top > 0) //Left by an error that skipped the exits, shouldn't happen
+            exit();
+        if (script.active > 0) {
+            long elapsed = System.nanoTime() - starts[0];
+            script.active = 0;
+            script.inclusive = elapsed;
+            script.exclusive = elapsed - children[0];
+            root.self = script.exclusive;
+        }
+    }
+
+    // ==> Reports
+    /**
+     * Prints the functions by exclusive time and the lines by statements executed.
+     * @param out
+     */
+    void report(PrintStream out) {
+        finish();
+        List<Function> sorted = new ArrayList<>(functions.values());
+        sorted.add(script);
+        sorted.sort((a, b) -> Long.compare(b.exclusive, a.exclusive));
+        out.printf("%-24s %12s %14s %14s%n", "Function", "Calls", "Inclusive ms", "Exclusive ms");
+        for (Function function : sorted)
+            out.printf("%-24s %12d %14.3f %14.3f%n", function.name, function.calls,
+                    function.inclusive / 1e6, function.exclusive / 1e6);
+
+        List<Integer> hot = new ArrayList<>();
+        for (int line = 1; line < lines.length; line++) { //0 is for statements without a line
+            if (lines[line] > 0) hot.add(line);
+        }
+        hot.sort((a, b) -> Long.compare(lines[b], lines[a]));
+        out.println();
+        out.printf("%-8s %14s%n", "Line", "Statements");
+        for (int line : hot)
+            out.printf("%-8d %14d%n", line, lines[line]);
+    }
+
+    /**
+     * Writes the call tree as collapsed stacks ({@code <script>;f;g 1234}, exclusive microseconds),
+     * the input format of flamegraph.pl and most flame graph viewers.
+     * @param out
+     */
+    void writeCollapsed(PrintStream out) {
+        finish();
+        writeCollapsed(out, root, root.function.name);
+    }
+
+    private static void writeCollapsed(PrintStream out, Node node, String path) {
+        long micros = node.self / 1000;
+        if (micros > 0)
+            out.println(path + " " + micros);
+        for (Node child : node.children.values())
+            writeCollapsed(out, child, path + ";" + child.function.name);
+    }
+    // <== Reports
+}
@@ -0,0 +1,33 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A script that has already been scanned, parsed, resolved and optimized (and compiled to
+ * bytecode when its {@link Engine} runs the {@link VM}). <br>
+ * Programs are immutable as far as callers can tell and can be run by any number of
+ * {@link Context}s, on any number of threads, without going through the front end again.
+ * The interpreter records type feedback on the shared tree, only the types of the values
+ * seen, so it holds for every context. What depends on a context's values, inline caches and
+ * bindings of globals, is kept by each context in arrays indexed by the {@link Sites} of the program.
+ */
+public final class Program {
+    final List<Stmt> statements; //Resolved and optimized
+    final CompiledFunction script; //Null unless the engine runs the VM
+
+    Program(List<Stmt> statements, CompiledFunction script) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.script = script;
+    }
+
+    /**
+     * Writes the program in the binary .yaic format, {@link Engine#load} runs it
+     * again without scanning, parsing or resolving the source.
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        AstWriter.write(this, out);
+    }
+}
@@ -0,0 +1,60 @@
+package com.uriegas.yai;
+
+import java.util.*;
+
+/**
+ * Bounded cache of {@link Program}s keyed by their source, evicting the least recently used. <br>
+ * Lookups hash the source (Strings cache their hash) and compare it on a hit,
+ * so two scripts with the same hash never share a program. <br>
+ * It is bounded by the number of programs and by the bytes of their sources: the tree of a program
+ * grows with its source, so a few huge scripts can't fill the heap. A source larger than
+ * the whole budget is never kept. <br>
+ * Safe to use from several threads, programs are prepared outside the lock.
+ */
+final class ProgramCache {
+    private final int capacity;
+    private final long maxBytes;
+    private final Map<String, Program> programs = new LinkedHashMap<>(16, 0.75f, true); //Access order
+    private long bytes = 0; //Of the sources kept
+
+    /**
+     * @param capacity maximum number of programs kept, 0 disables the cache
+     * @param maxBytes maximum bytes of the sources kept, see {@link Memory#string}
+     */
+    ProgramCache(int capacity, long maxBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Program get(String source) {
+        return programs.get(source);
+    }
+
+    /**
+     * Keeps a program, unless another thread prepared the same source first.
+     * @param source
+     * @param program
+     * @return the program that is in the cache now, or the given one if it can't be kept.
+     */
+    synchronized Program put(String source, Program program) {
+        Program cached = programs.get(source);
+        if (cached != null) return cached;
+        long size = Memory.string(source.length());
+        if (capacity == 0 || size > maxBytes) return program;
+        programs.put(source, program);
+        bytes += size;
+        Iterator<String> eldest = programs.keySet().iterator();
+        while (programs.size() > capacity || bytes > maxBytes) { //Never reaches the new program, it fits
+            bytes -= Memory.string(eldest.next().length());
+            eldest.remove();
+        }
+        return program;
+    }
+
+    /**
+     * @return bytes of the sources kept.
+     */
+    synchronized long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,246 @@
+package com.uriegas.yai;
+
+import java.util.*;
+
+/**
+ * Static resolution pass.<br>
+ * Runs between the {@link Parser} and the {@link Interpreter} and annotates every
+ * local variable reference with its lexical depth (how many environments to hop)
+ * and its slot inside that environment, so the interpreter can index an array
+ * instead of hashing names. <br>
+ * Functions only see their own locals and the globals (there are no closures), so
+ * the lookup stops at the enclosing function boundary and anything not found there
+ * is left as a global (depth = -1).
+ */
+public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final ErrorReporter reporter;
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    private int functionBase = 0; //Index of the innermost function scope
+    private boolean inFunction = false;
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Resolves a whole program.
+     * @param statements
+     */
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements)
+            resolve(statement);
+    }
+
+    // ==> Statements
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!declaresVariables(stmt.statements)) { //No scope, the interpreter won't create an environment
+            resolve(stmt.statements);
+            stmt.locals = 0;
+            return null;
+        }
+        beginScope();
+        resolve(stmt.statements);
+        stmt.locals = endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.slot = declare(stmt.name);
+        resolveFunction(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (!inFunction)
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+        if (stmt.value != null) resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // The initializer is resolved first so `var a = a;` still reads the outer `a`
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        int depth = lookup(expr.name);
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(expr.name, depth);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments)
+            resolve(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int depth = lookup(expr.name);
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(expr.name, depth);
+        }
+        return null;
+    }
+    // <== Expressions
+
+    // ==> Helper Methods
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void resolveFunction(Stmt.Function function) {
+        int enclosingBase = functionBase;
+        boolean enclosingFunction = inFunction;
+        beginScope();
+        functionBase = scopes.size() - 1;
+        inFunction = true;
+
+        for (Token param : function.params)
+            declare(param);
+        resolve(function.body);
+
+        function.locals = endScope();
+        functionBase = enclosingBase;
+        inFunction = enclosingFunction;
+    }
+
+    /**
+     * Only the direct children of a block declare in its scope.
+     * @param statements
+     * @return true if the block needs an environment.
+     */
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function)
+                return true;
+        }
+        return false;
+    }
+
+    private void beginScope() {
+        scopes.add(new IdentityHashMap<>()); //Names are symbols, see Symbols
+    }
+
+    /**
+     * Closes the innermost scope.
+     * @return the number of slots the scope needs at runtime.
+     */
+    private int endScope() {
+        return scopes.remove(scopes.size() - 1).size();
+    }
+
+    /**
+     * Declares a name in the innermost scope.
+     * Redeclaring a name in the same scope reuses its slot.
+     * @param name
+     * @return the slot of the variable or -1 if it is a global.
+     */
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        Integer slot = scope.get(name.lexeme);
+        if (slot == null) {
+            slot = scope.size();
+            scope.put(name.lexeme, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Finds how many scopes away a local variable lives.
+     * @param name
+     * @return the depth or -1 if it is not a local of the current function.
+     */
+    private int lookup(Token name) {
+        int lowest = inFunction ? functionBase : 0;
+        for (int i = scopes.size() - 1; i >= lowest; i--) {
+            if (scopes.get(i).containsKey(name.lexeme))
+                return scopes.size() - 1 - i;
+        }
+        return -1;
+    }
+
+    private int slotOf(Token name, int depth) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme);
+    }
+    // <== Helper Methods
+}
@@ -0,0 +1,118 @@
+package com.uriegas.yai;
+
+/**
+ * String value built by concatenation, so building a string in a loop is linear instead of quadratic. <br>
+ * A rope is a prefix of a {@link StringBuilder} that can be shared by several ropes:
+ * appending to the rope that owns the end of the builder appends in place and returns
+ * a longer rope over the same builder, the shorter ones still see only their own prefix.
+ * Appending to any other rope copies it into a new builder, like a String would. <br>
+ * Ropes are flattened into a String, once, when their characters are needed:
+ * printing or comparing them. String values are Strings or ropes,
+ * code that handles both treats them as {@link CharSequence}s. <br>
+ * Short results stay plain Strings, ropes only pay off for long ones.
+ */
+final class Rope implements CharSequence {
+    /** Shortest concatenation that makes a rope. */
+    static final int MIN_LENGTH = 256;
+
+    private final StringBuilder chars; //Shared with the ropes appended to this one
+    private final int length;
+    private String flat; //Cached once flattened
+
+    private Rope(StringBuilder chars, int length) {
+        this.chars = chars;
+        this.length = length;
+    }
+
+    /**
+     * Concatenates two string values.
+     * @param left a String or a rope
+     * @param right a String or a rope
+     * @return a String if the result is short, a rope otherwise.
+     */
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if (length < 0)
+            throw new OutOfMemoryError("String too long");
+        if (appendsInPlace(left)) {
+            Rope rope = (Rope) left;
+            append(rope.chars, right);
+            return new Rope(rope.chars, length);
+        }
+        if (length < MIN_LENGTH) //Both are Strings, ropes are never that short
+            return left.toString().concat(right.toString());
+        StringBuilder chars = new StringBuilder(Math.max(length, MIN_LENGTH) * 2);
+        append(chars, left);
+        append(chars, right);
+        return new Rope(chars, length);
+    }
+
+    /**
+     * @param left
+     * @param right
+     * @return estimated bytes {@link #concat} allocates, see {@link Memory}.
+     */
+    static long bytes(CharSequence left, CharSequence right) {
+        if (appendsInPlace(left))
+            return 4L * right.length(); //Two bytes a char at worst, doubled by the builder's growth
+        long length = (long) left.length() + right.length();
+        return length < MIN_LENGTH ? Memory.string(length) : Memory.string(2 * length);
+    }
+
+    /**
+     * @param value
+     * @return true if concatenating to the value appends to its builder.
+     */
+    private static boolean appendsInPlace(CharSequence value) {
+        return value instanceof Rope && ((Rope) value).length == ((Rope) value).chars.length();
+    }
+
+    private static void append(StringBuilder chars, CharSequence value) {
+        if (value instanceof Rope && ((Rope) value).chars != chars) {
+            Rope rope = (Rope) value;
+            chars.append(rope.chars, 0, rope.length);
+        } else {
+            chars.append(value.toString()); //Flattens a rope over this same builder, it can't read itself while growing
+        }
+    }
+
+    /**
+     * Counts the builder, once for all the ropes sharing it, and the flattened copy.
+     * @param memory
+     */
+    void retain(Memory memory) {
+        memory.retainChars(chars, chars.capacity());
+        if (flat != null)
+            memory.retain(flat);
+    }
+
+    // ==> CharSequence
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length)
+            throw new IndexOutOfBoundsException(index);
+        return chars.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * Flattens the rope.
+     * @return the characters as a String.
+     */
+    @Override
+    public String toString() {
+        if (flat == null)
+            flat = chars.substring(0, length);
+        return flat;
+    }
+    // <== CharSequence
+}
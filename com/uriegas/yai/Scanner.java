@@ -1,20 +1,38 @@
 package com.uriegas.yai;
 
+import java.io.*;
 import java.util.*;
 import static com.uriegas.yai.TokenType.*;
 
 /**
  * Scanner for the YAIL language.<br>
- * It takes a string and returns a list of tokens.
+ * It reads the source in chunks and scans a batch of {@link Tokens} at a time, as the {@link Parser} asks for them,
+ * so only a window of the source is held: from the first token of the batch to the chunk after the last one. <br>
+ * The window grows for a batch longer than a chunk, a long string for example.
+ * A failure reading the source is thrown as an {@link UncheckedIOException}. <br>
+ * Tokens are ints in the batch, not objects, and lexemes aren't cut from the source: punctuation and keywords
+ * use constants, names and literals go through the {@link Symbols} of the source and their values are
+ * parsed once per distinct lexeme.
  */
 public class Scanner {
-    private final String source; //The source code to evaluate
-    private final List<Token> tokens = new ArrayList<>();
+    /** Chars read from the source at once. */
+    static final int CHUNK = 1 << 13;
+
+    private final Reader source; //The source code to evaluate
+    private final ErrorReporter reporter;
+    private char[] window = new char[CHUNK]; //The source from the start of the current token
+    private int limit = 0; //Chars read into the window
+    private long discarded = 0; //Chars of the source before the window
+    final Tokens tokens = new Tokens(); //The batch being scanned or parsed
+    private boolean ended = false; //EOF scanned
+    private final Symbols symbols = new Symbols(keywords.keySet());
+    private final Map<String, Object> literals = new IdentityHashMap<>(); //Lexeme symbol -> value
 
     private static final Map<String, TokenType> keywords;
+    private static final String[] lexemes = new String[TokenType.values().length]; //Of the fixed tokens and keywords
 
     static {
-        keywords = new HashMap<>();
+        keywords = new IdentityHashMap<>(); //Keyword lexemes are these constants, see Symbols
         keywords.put("and",    AND);
         keywords.put("else",   ELSE);
         keywords.put("false",  FALSE);
@@ -28,6 +46,15 @@ public class Scanner {
         keywords.put("true",   TRUE);
         keywords.put("var",    VAR);
         keywords.put("while",  WHILE);
+
+        String[] fixed = {"(", ")", "{", "}", ",", "-", "+", ";", "*", "!", "!=", "=", "==", "<", "<=", ">", ">=", "/"};
+        TokenType[] types = {LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, MINUS, PLUS, SEMICOLON, STAR,
+                BANG, BANG_EQUAL, EQUAL, EQUAL_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, SLASH};
+        for (int i = 0; i < fixed.length; i++)
+            lexemes[types[i].ordinal()] = fixed[i];
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet())
+            lexemes[keyword.getValue().ordinal()] = keyword.getKey();
+        lexemes[EOF.ordinal()] = "";
     }
 
     private int start = 0;
@@ -37,30 +64,119 @@ public class Scanner {
     /**
      * Constructor to load source code
      * @param source
+     * @param reporter receives the lexical errors
      */
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
+        this(new StringReader(source), reporter);
+    }
+
+    /**
+     * @param source read as the tokens are needed, not closed by the scanner
+     * @param reporter receives the lexical errors
+     */
+    Scanner(Reader source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
     }
 
-    List<Token> scan() {
-        while(!isAtEnd()){
+    /**
+     * Scans the next batch into {@link #tokens}, it starts with the last token of the previous one.
+     * @return false if the source was over, the last batch ended with EOF.
+     */
+    boolean scan() {
+        if(ended)
+            return false;
+        tokens.keepLast();
+        while(!tokens.isFull()){
+            if(isAtEnd()){
+                tokens.add(EOF, current, 0, line, null);
+                ended = true;
+                break;
+            }
             start = current;
             scanToken();
         }
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        return true;
+    }
+
+    /**
+     * Makes the object of a token of the batch, for the tree or an error.
+     * @param index in {@link #tokens}
+     * @return the token.
+     */
+    Token token(int index) {
+        TokenType type = tokens.type(index);
+        Object value = tokens.values[index];
+        switch(type){
+            case IDENTIFIER:
+                return new Token(type, (String) value, null, tokens.lines[index]);
+            case NUMBER: case STRING:
+                String text = symbols.intern(window, tokens.starts[index], tokens.lengths[index]);
+                return new Token(type, text, value, tokens.lines[index]);
+            default:
+                return new Token(type, lexemes[type.ordinal()], null, tokens.lines[index]);
+        }
+    }
+
+    /**
+     * @return chars of the source scanned so far.
+     */
+    long position() {
+        return discarded + current;
     }
 
+    // ==> Window
     /**
      * Checks if the current character is at the end of the source code
      * @return
      */
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(1);
+    }
+
+    /**
+     * Reads the source until the window holds that many chars from the current one.
+     * @param count
+     * @return false if the source ends before.
+     */
+    private boolean available(int count) {
+        while(limit - current < count){
+            if(!fill())
+                return false;
+        }
+        return true;
     }
 
     /**
-     * Scans a single token and adds it to the list of tokens as a Token type
+     * Reads the next chunk, dropping what is before the first token of the batch.
+     * @return false if the source is over.
+     */
+    private boolean fill() {
+        int first = tokens.count > 0 ? tokens.starts[0] : start;
+        if(first > 0){
+            System.arraycopy(window, first, window, 0, limit - first);
+            discarded += first;
+            limit -= first;
+            current -= first;
+            start -= first;
+            tokens.shift(first);
+        }
+        if(limit == window.length) //The batch fills the window
+            window = Arrays.copyOf(window, 2 * window.length);
+        try {
+            int read = source.read(window, limit, window.length - limit);
+            if(read < 0)
+                return false;
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    // <== Window
+
+    /**
+     * Scans a single token into the batch
      */
     public void scanToken(){
         char c = advance();
@@ -103,22 +219,22 @@ public class Scanner {
                 else if(isAlpha(c))
                     identifier();
                 else
-                    Yai.error(line, "Unexpected character.");
+                    reporter.error(line, "Unexpected character.");
         }
     }
 
     /**
-     * Add an identifier token to the list of tokens
+     * Scans an identifier or a keyword
      */
     private void identifier() {
         while(isAlphaNumeric(peek()))
             advance();
-        String text = source.substring(start, current); //Get the identifier text
-        TokenType type = keywords.get(text); //Get the token type
+        String text = symbols.name(window, start, current - start); //Get the identifier symbol
+        TokenType type = keywords.get(text); //Get the token type, keywords are symbols too
         if(type != null)
             addToken(type);
         else
-            addToken(IDENTIFIER);
+            tokens.add(IDENTIFIER, start, current - start, line, text);
     }
 
     /**
@@ -149,7 +265,7 @@ public class Scanner {
     }
 
     /**
-     * Scans a number and adds it to the list of tokens
+     * Scans a number
      */
     private void number() {
         while(isDigit(peek())) advance();
@@ -157,11 +273,17 @@ public class Scanner {
             advance();
             while(isDigit(peek())) advance();
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        String text = lexeme();
+        Object value = literals.get(text);
+        if(value == null){
+            value = Double.parseDouble(text);
+            literals.put(text, value);
+        }
+        tokens.add(NUMBER, start, current - start, line, value);
     }
 
     /**
-     * Scan a string literal and adds it to the list of tokens
+     * Scan a string literal
      */
     private void string() {
         while(peek() != '"' && !isAtEnd()){
@@ -169,11 +291,17 @@ public class Scanner {
             advance();
         }
         if(isAtEnd()){
-            Yai.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
         advance();//Close string
-        addToken(STRING, source.substring(start + 1, current - 1));//Remove quotes and add to tokens
+        String text = lexeme();
+        Object value = literals.get(text);
+        if(value == null){
+            value = text.substring(1, text.length() - 1);//Remove quotes
+            literals.put(text, value);
+        }
+        tokens.add(STRING, start, current - start, line, value);
     }
 
     /**
@@ -183,7 +311,7 @@ public class Scanner {
      */
     private boolean match(char expected) {
         if(isAtEnd()) return false; // We reached end of source code
-        if(source.charAt(current) != expected) return false; // The character doesn't match
+        if(window[current] != expected) return false; // The character doesn't match
         current++;
         return true;
     }
@@ -193,7 +321,7 @@ public class Scanner {
      * @return the next character
      */
     private char advance() {
-        return source.charAt(current++);
+        return window[current++]; //Always after isAtEnd or peek, the char is in the window
     }
 
     /**
@@ -201,32 +329,29 @@ public class Scanner {
      */
     private char peek() {
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return window[current];
     }
 
     /**
      * Returns the next character without consuming it
      */
     private char peekNext() {
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if(!available(2)) return '\0';
+        return window[current + 1];
     }
 
     /**
-     * Adds a token to the list of tokens
+     * Adds a punctuation, operator or keyword token to the batch
      * @param type
      */
     private void addToken(TokenType type) {
-        addToken(type, null);
+        tokens.add(type, start, current - start, line, null);
     }
 
     /**
-     * Add a new {@link Token} to the list of tokens with the given type and 
-     * @param type The {@link TokenType}
-     * @param literal The literal value of the token
+     * @return the text of the current token, as a symbol.
      */
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private String lexeme() {
+        return symbols.intern(window, start, current - start);
     }
 }
@@ -0,0 +1,156 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * Long lived process running scripts sent by {@link Client}s over a Unix domain socket. <br>
+ * Every request gets a fresh {@link Context}, so requests don't see each other's globals,
+ * but they share one {@link Engine}: its program cache and the functions the JIT already
+ * compiled stay warm between requests. Requests run in parallel on a fixed pool of threads. <br>
+ * Protocol, all integers big endian: the client sends the absolute path of the script
+ * (int length + UTF-8 bytes), the server answers with frames of a one byte kind and an int:
+ * {@link #OUT} and {@link #ERR} are followed by that many bytes of output,
+ * {@link #EXIT} carries the exit status and ends the response. A request that isn't a path
+ * of 1 to {@link #MAX_PATH} bytes gets an error frame and exit status 1.
+ */
+final class Server {
+    static final int OUT = 1, ERR = 2, EXIT = 0;
+    /** Longest path accepted, in bytes (PATH_MAX on Linux). */
+    static final int MAX_PATH = 4096;
+    /** Socket used when none is given. */
+    static final Path SOCKET = Paths.get(System.getProperty("yai.socket",
+            Paths.get(System.getProperty("java.io.tmpdir"), "yai-" + System.getProperty("user.name") + ".sock").toString()));
+    /** Number of requests run at the same time. */
+    static final int THREADS = Integer.getInteger("yai.server.threads", Runtime.getRuntime().availableProcessors());
+
+    private final Engine engine;
+    private final Path socket;
+
+    Server(Engine engine, Path socket) {
+        this.engine = engine;
+        this.socket = socket;
+    }
+
+    /**
+     * Accepts requests until the process is killed.
+     * @throws IOException if the socket can't be opened
+     */
+    void serve() throws IOException {
+        Files.deleteIfExists(socket); //Left behind by a previous server
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.err.println("Listening on " + socket);
+            while (true) {
+                SocketChannel client = server.accept();
+                pool.execute(() -> handle(client));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one request in its own context, like {@code yai script} would.
+     * @param channel
+     */
+    private void handle(SocketChannel channel) {
+        try (SocketChannel client = channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            int length = in.readInt();
+            if (length < 1 || length > MAX_PATH) { //Not a path, don't allocate what it says
+                reject(frames, "Invalid request: a path of " + length + " bytes.");
+                return;
+            }
+            byte[] name = new byte[length];
+            in.readFully(name);
+            Path path;
+            try {
+                path = Paths.get(new String(name, StandardCharsets.UTF_8));
+            } catch (InvalidPathException e) {
+                reject(frames, "Invalid request: " + e.getMessage());
+                return;
+            }
+
+            OutputSink out = OutputSink.writingTo(new Frames(frames, OUT));
+            PrintStream err = new PrintStream(new Frames(frames, ERR), true);
+            int status = run(path, out, err);
+            out.flush();
+            frames.writeByte(EXIT);
+            frames.writeInt(status);
+            frames.flush();
+        } catch (IOException e) {
+            //The client went away, nothing to answer
+        }
+    }
+
+    /**
+     * Answers a malformed request with an error and exit status 1.
+     * @param frames
+     * @param message
+     * @throws IOException
+     */
+    private static void reject(DataOutputStream frames, String message) throws IOException {
+        byte[] bytes = (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        frames.writeByte(ERR);
+        frames.writeInt(bytes.length);
+        frames.write(bytes);
+        frames.writeByte(EXIT);
+        frames.writeInt(1);
+        frames.flush();
+    }
+
+    /**
+     * @param path
+     * @param out
+     * @param err
+     * @return the exit status yai would have, 1 if the script couldn't be compiled.
+     */
+    private int run(Path path, OutputSink out, PrintStream err) {
+        ErrorReporter errors = ErrorReporter.printingTo(err); //The context flushes the output before an error
+        try {
+            return Yai.runFile(engine, engine.createContext(out, errors), path, errors);
+        } catch (IOException e) {
+            err.println(e);
+            return 1;
+        }
+    }
+
+    /**
+     * Cuts what is written to it into frames of one kind.
+     */
+    private static final class Frames extends OutputStream {
+        private final DataOutputStream frames;
+        private final int kind;
+
+        Frames(DataOutputStream frames, int kind) {
+            this.frames = frames;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            frames.writeByte(kind);
+            frames.writeInt(length);
+            frames.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            frames.flush();
+        }
+    }
+}
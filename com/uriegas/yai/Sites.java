@@ -0,0 +1,150 @@
+package com.uriegas.yai;
+
+import java.util.*;
+
+/**
+ * Numbers the nodes of a program that the {@link Interpreter} caches something for: the calls
+ * (their inline caches) and the global variables (their bindings). <br>
+ * Programs are shared by every context that runs them, so the caches can't live on the nodes:
+ * each interpreter keeps an array per program, indexed by these numbers. A node refers to its
+ * Sites, so it finds the array of its program whatever function or program it runs from.
+ */
+final class Sites implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    int count = 0; //Numbers given
+
+    private Sites() {}
+
+    /**
+     * Numbers the nodes of a resolved and optimized program.
+     * @param statements
+     */
+    static void number(List<Stmt> statements) {
+        new Sites().visit(statements);
+    }
+
+    private void visit(List<Stmt> statements) {
+        for (Stmt statement : statements)
+            statement.accept(this);
+    }
+
+    private void visit(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    // ==> Statements
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        visit(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        visit(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        visit(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        visit(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        visit(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        visit(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        visit(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        visit(stmt.condition);
+        stmt.body.accept(this);
+        return null;
+    }
+    // <== Statements
+
+    // ==> Expressions
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        visit(expr.value);
+        if (expr.depth < 0 && expr.sites != this) {
+            expr.sites = this;
+            expr.site = count++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        visit(expr.left);
+        visit(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        visit(expr.callee);
+        for (Expr argument : expr.arguments)
+            visit(argument);
+        if (expr.sites != this) {
+            expr.sites = this;
+            expr.site = count++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        visit(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        visit(expr.left);
+        visit(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        visit(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0 && expr.sites != this) {
+            expr.sites = this;
+            expr.site = count++;
+        }
+        return null;
+    }
+    // <== Expressions
+}
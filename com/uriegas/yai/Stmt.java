@@ -17,8 +17,12 @@ abstract class Stmt {
         R visitWhileStmt(While stmt);
     }
 
+    /** Line the statement starts on, set by the Parser (0 for statements it didn't write). */
+    int line;
+
     static class Block extends Stmt {
         final List<Stmt> statements;
+        int locals; //Number of slots, set by the Resolver (0 = no environment needed)
         Block(List<Stmt> statements) {
         this.statements = statements;
         }
@@ -43,6 +47,10 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        int slot = -1; //Set by the Resolver, -1 means global
+        int locals; //Number of slots (params included), set by the Resolver
+        JitCompiler.Body compiled; //Shared by every YaiFunction made from this declaration
+        boolean jitted; //The JitCompiler already tried, compiled stays null if it couldn't
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
             this.params = params;
@@ -83,9 +91,11 @@ abstract class Stmt {
     static class Return extends Stmt {
         final Token keyword;
         final Expr value;
+        final boolean tailCall; //return f(...), the call can reuse the caller's frame
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
             this.value = value;
+            this.tailCall = value instanceof Expr.Call;
         }
 
         @Override
@@ -97,6 +107,7 @@ abstract class Stmt {
     static class Var extends Stmt {
         final Token name;
         final Expr initializer;
+        int slot = -1; //Set by the Resolver, -1 means global
         Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
@@ -0,0 +1,108 @@
+package com.uriegas.yai;
+
+/**
+ * Symbol table of the lexemes of one source: every distinct identifier, keyword or literal
+ * is a single String, created the first time it is scanned and shared by all its tokens. <br>
+ * Lookups hash the chars in the {@link Scanner}'s window, so a repeated lexeme allocates nothing.
+ * Names are also canonical across sources: a new one goes through {@link String#intern}, the JVM's own
+ * symbol table (shared by all threads, and names no program uses anymore are collected).
+ * So a name is the same String in every program, and the {@link Environment}s and the {@link VM}
+ * can key globals by identity; {@link AstReader} interns the names of loaded programs too. <br>
+ * Open addressing with linear probing, the hashes are kept to grow without rehashing the Strings.
+ */
+final class Symbols {
+    private String[] symbols = new String[256]; //Length is a power of two
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    /**
+     * Symbols that don't come from the source, like the keywords.
+     * @param predefined
+     */
+    Symbols(Iterable<String> predefined) {
+        for (String symbol : predefined) {
+            char[] chars = symbol.toCharArray();
+            add(slot(chars, 0, chars.length, symbol.hashCode()), symbol, symbol.hashCode());
+        }
+    }
+
+    /**
+     * @param chars
+     * @param start
+     * @param length
+     * @return the symbol with those chars.
+     */
+    String intern(char[] chars, int start, int length) {
+        return intern(chars, start, length, false);
+    }
+
+    /**
+     * Like {@link #intern} for an identifier, the symbol is the canonical String of the name.
+     * @param chars
+     * @param start
+     * @param length
+     * @return the symbol with those chars.
+     */
+    String name(char[] chars, int start, int length) {
+        return intern(chars, start, length, true);
+    }
+
+    private String intern(char[] chars, int start, int length, boolean canonical) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + chars[i]; //Same as String.hashCode
+        int slot = slot(chars, start, length, hash);
+        String symbol = symbols[slot];
+        if (symbol == null) {
+            symbol = new String(chars, start, length);
+            if (canonical)
+                symbol = symbol.intern();
+            add(slot, symbol, hash);
+        }
+        return symbol;
+    }
+
+    /**
+     * @return the slot of the symbol or the empty slot where it goes.
+     */
+    private int slot(char[] chars, int start, int length, int hash) {
+        int mask = symbols.length - 1;
+        for (int slot = (hash ^ hash >>> 16) & mask; ; slot = (slot + 1) & mask) {
+            String symbol = symbols[slot];
+            if (symbol == null || hashes[slot] == hash && matches(symbol, chars, start, length))
+                return slot;
+        }
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+
+    private void add(int slot, String symbol, int hash) {
+        symbols[slot] = symbol;
+        hashes[slot] = hash;
+        if (++count * 2 > symbols.length)
+            grow();
+    }
+
+    private void grow() {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[2 * oldSymbols.length];
+        hashes = new int[symbols.length];
+        int mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] == null) continue;
+            int hash = oldHashes[i];
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (symbols[slot] != null)
+                slot = (slot + 1) & mask;
+            symbols[slot] = oldSymbols[i];
+            hashes[slot] = hash;
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package com.uriegas.yai;
 
 /**
- * Representation of a Token
+ * Representation of a Token <br>
+ * The lexemes of a program are symbols (see {@link Symbols}): equal names are the same String.
  */
 public class Token {
     final TokenType type;
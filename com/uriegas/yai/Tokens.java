@@ -0,0 +1,84 @@
+package com.uriegas.yai;
+
+/**
+ * A batch of tokens kept as parallel arrays: the {@link Scanner} fills it and the {@link Parser}
+ * reads it by index, so scanning allocates nothing per token. <br>
+ * A token is its type, the start of its text in the scanner's window, its length and its line.
+ * Names and literals also have a value in a side table: the symbol of the name (see {@link Symbols})
+ * or the value of the literal. A {@link Token} object is made only for what the parser keeps in the tree,
+ * see {@link Scanner#token}. <br>
+ * The next batch replaces this one, only its last token is kept: the parser's previous token.
+ */
+final class Tokens {
+    /** Tokens scanned at once. */
+    static final int BATCH = 1024;
+    private static final TokenType[] TYPES = TokenType.values();
+
+    final int[] types = new int[BATCH]; //TokenType ordinals
+    final int[] starts = new int[BATCH]; //In the scanner's window
+    final int[] lengths = new int[BATCH];
+    final int[] lines = new int[BATCH];
+    final Object[] values = new Object[BATCH]; //Symbol of an IDENTIFIER, value of a NUMBER or STRING
+    int count = 0;
+
+    /**
+     * @param index
+     * @return the type of the token.
+     */
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Adds a token at the end of the batch.
+     * @param type
+     * @param start
+     * @param length
+     * @param line
+     * @param value symbol or literal, null for the rest
+     */
+    void add(TokenType type, int start, int length, int line, Object value) {
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        values[count] = value;
+        count++;
+    }
+
+    /**
+     * @return true if the batch can't take more tokens.
+     */
+    boolean isFull() {
+        return count == BATCH;
+    }
+
+    /**
+     * Starts the next batch with the last token of this one.
+     */
+    void keepLast() {
+        if (count == 0) return;
+        int last = count - 1;
+        copy(last, 0);
+        for (int i = 1; i < count; i++)
+            values[i] = null; //Don't hold on to literals
+        count = 1;
+    }
+
+    private void copy(int from, int to) {
+        types[to] = types[from];
+        starts[to] = starts[from];
+        lengths[to] = lengths[from];
+        lines[to] = lines[from];
+        values[to] = values[from];
+    }
+
+    /**
+     * Moves the tokens after the scanner drops chars from the start of its window.
+     * @param chars dropped
+     */
+    void shift(int chars) {
+        for (int i = 0; i < count; i++)
+            starts[i] -= chars;
+    }
+}
@@ -0,0 +1,366 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.util.*;
+import static com.uriegas.yai.OpCode.*;
+
+/**
+ * Stack based virtual machine, alternative to the tree-walking {@link Interpreter}. <br>
+ * Runs the bytecode produced by the {@link BytecodeCompiler} in a single dispatch loop.
+ * Every call frame is laid out on the value stack as [callee, locals..., operands...],
+ * so calls and returns don't recurse on the Java stack: the call depth only depends on
+ * the {@link Limits} and the heap, not on the thread's stack size.
+ */
+final class VM {
+    private final OutputSink out;
+    private final ErrorReporter reporter;
+    private final Map<String, Object> globals = new IdentityHashMap<>(); //Names are symbols, see Symbols
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+
+    // Call frames as parallel arrays, the running frame is kept in locals of run()
+    private CompiledFunction[] frameFunctions = new CompiledFunction[64];
+    private int[] frameIps = new int[64];
+    private int[] frameBases = new int[64];
+    private int frameCount = 0;
+    long calls = 0; //Counter added to the Metrics when a script ends
+    private final int maxDepth;
+    private final Limits.Meter meter;
+    final Memory memory;
+
+    /**
+     * @param out where print writes
+     * @param reporter receives the runtime errors
+     * @param limits bounds of every script run
+     */
+    VM(OutputSink out, ErrorReporter reporter, Limits limits) {
+        this.out = out;
+        this.reporter = reporter;
+        this.maxDepth = limits.maxDepth;
+        this.meter = new Limits.Meter(limits);
+        this.memory = new Memory(limits.maxMemory, this::retainRoots);
+    }
+
+    /**
+     * Runs a compiled script.
+     * @param script
+     */
+    void interpret(CompiledFunction script) {
+        meter.start();
+        try {
+            run(script);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error.line, error.getMessage());
+        } finally {
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+        }
+    }
+
+    private void run(CompiledFunction script) {
+        CompiledFunction function = script;
+        byte[] code = function.chunk.code;
+        Object[] constants = function.chunk.constants;
+        int ip = 0;
+        long fuel = 0; //Left in the current slice of the meter
+        int maxDepth = this.maxDepth;
+        stack[sp++] = script;
+        int base = sp;
+        ensureCapacity(base + function.locals + function.maxStack);
+        sp = base + function.locals;
+
+        while (true) {
+            switch (code[ip++]) {
+                case CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case NULL:  stack[sp++] = null; break;
+                case TRUE:  stack[sp++] = Boolean.TRUE; break;
+                case FALSE: stack[sp++] = Boolean.FALSE; break;
+                case POP:   stack[--sp] = null; break;
+                case GET_LOCAL:
+                    stack[sp++] = stack[base + readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case SET_LOCAL:
+                    stack[base + readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case STORE_LOCAL:
+                    stack[base + readShort(code, ip)] = stack[--sp];
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                case GET_GLOBAL: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name))
+                        throw error(function, ip, "Variable " + name + " not found");
+                    stack[sp++] = value;
+                    break;
+                }
+                case SET_GLOBAL: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    if (!globals.containsKey(name))
+                        throw error(function, ip, "Variable " + name + " not found");
+                    globals.put(name, stack[sp - 1]);
+                    break;
+                }
+                case DEFINE_GLOBAL:
+                    globals.put((String) constants[readShort(code, ip)], stack[--sp]);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                case EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+                    stack[sp] = null;
+                    break;
+                }
+                case NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+                    stack[sp] = null;
+                    break;
+                }
+                case GREATER: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left > (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left >= (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case LESS: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left < (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left <= (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case ADD: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double)
+                        stack[sp - 1] = (double) left + (double) right;
+                    else if (left instanceof CharSequence && right instanceof CharSequence)
+                        stack[sp - 1] = concat(function, ip, (CharSequence) left, (CharSequence) right);
+                    else
+                        throw error(function, ip, "Operands must be two numbers or two strings.");
+                    stack[sp] = null;
+                    break;
+                }
+                case SUBTRACT: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left - (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case MULTIPLY: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left * (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case DIVIDE: {
+                    Object right = stack[--sp], left = stack[sp - 1];
+                    checkNumbers(function, ip, left, right);
+                    stack[sp - 1] = (double) left / (double) right;
+                    stack[sp] = null;
+                    break;
+                }
+                case NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case NEGATE:
+                    if (!(stack[sp - 1] instanceof Double))
+                        throw error(function, ip, "Operand must be a number.");
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+                case PRINT:
+                    Interpreter.print(out, stack[--sp]);
+                    stack[sp] = null;
+                    break;
+                case JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+                case JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(stack[sp - 1])) ip += 2;
+                    else ip += readShort(code, ip) + 2;
+                    break;
+                case JUMP_IF_TRUE:
+                    if (Interpreter.isTruthy(stack[sp - 1])) ip += readShort(code, ip) + 2;
+                    else ip += 2;
+                    break;
+                case POP_JUMP_IF_FALSE: {
+                    Object condition = stack[--sp];
+                    stack[sp] = null;
+                    if (Interpreter.isTruthy(condition)) ip += 2;
+                    else ip += readShort(code, ip) + 2;
+                    break;
+                }
+                case LOOP:
+                    if (--fuel < 0) fuel = refuel(function, ip) - 1;
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                case CALL: {
+                    int argCount = code[ip++] & 0xFF;
+                    Object callee = stack[sp - argCount - 1];
+                    if (!(callee instanceof CompiledFunction))
+                        throw error(function, ip, "Can only call functions and classes.");
+                    CompiledFunction target = (CompiledFunction) callee;
+                    if (argCount != target.arity)
+                        throw error(function, ip, "Expected " + target.arity + " arguments but got " + argCount + ".");
+                    if (frameCount == maxDepth)
+                        throw error(function, ip, "Stack overflow.");
+                    if (--fuel < 0) fuel = refuel(function, ip) - 1;
+                    pushFrame(function, ip, base);
+                    calls++;
+
+                    function = target;
+                    code = target.chunk.code;
+                    constants = target.chunk.constants;
+                    ip = 0;
+                    base = sp - argCount;
+                    ensureCapacity(base + target.locals + target.maxStack);
+                    sp = base + target.locals;
+                    break;
+                }
+                case TAIL_CALL: {
+                    int argCount = code[ip++] & 0xFF;
+                    int callee = sp - argCount - 1;
+                    if (!(stack[callee] instanceof CompiledFunction))
+                        throw error(function, ip, "Can only call functions and classes.");
+                    CompiledFunction target = (CompiledFunction) stack[callee];
+                    if (argCount != target.arity)
+                        throw error(function, ip, "Expected " + target.arity + " arguments but got " + argCount + ".");
+                    if (--fuel < 0) fuel = refuel(function, ip) - 1;
+                    calls++;
+                    // Slide the callee and its arguments over the current frame
+                    System.arraycopy(stack, callee, stack, base - 1, argCount + 1);
+                    Arrays.fill(stack, base + argCount, sp, null);
+
+                    function = target;
+                    code = target.chunk.code;
+                    constants = target.chunk.constants;
+                    ip = 0;
+                    ensureCapacity(base + target.locals + target.maxStack);
+                    sp = base + target.locals;
+                    break;
+                }
+                case RETURN: {
+                    Object result = stack[--sp];
+                    Arrays.fill(stack, base - 1, sp, null);
+                    sp = base - 1;
+                    if (frameCount == 0) return; //End of the script
+                    frameCount--;
+                    function = frameFunctions[frameCount];
+                    code = function.chunk.code;
+                    constants = function.chunk.constants;
+                    ip = frameIps[frameCount];
+                    base = frameBases[frameCount];
+                    stack[sp++] = result;
+                    break;
+                }
+                default:
+                    throw error(function, ip, "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    // ==> Helper Methods
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xFF) << 8) | (code[ip + 1] & 0xFF);
+    }
+
+    private void pushFrame(CompiledFunction function, int ip, int base) {
+        if (frameCount == frameFunctions.length) {
+            int size = frameCount * 2;
+            frameFunctions = Arrays.copyOf(frameFunctions, size);
+            frameIps = Arrays.copyOf(frameIps, size);
+            frameBases = Arrays.copyOf(frameBases, size);
+        }
+        frameFunctions[frameCount] = function;
+        frameIps[frameCount] = ip;
+        frameBases[frameCount] = base;
+        frameCount++;
+    }
+
+    /**
+     * Grows the value stack so it can hold at least the given number of values.
+     * @param size
+     */
+    private void ensureCapacity(int size) {
+        if (size >= stack.length)
+            stack = Arrays.copyOf(stack, Math.max(size + 1, stack.length * 2));
+    }
+
+    /**
+     * Gets the next slice of fuel, see {@link Limits.Meter}.
+     * @param function
+     * @param ip position right after the instruction spending it
+     * @return the slice.
+     */
+    private long refuel(CompiledFunction function, int ip) {
+        return meter.refuel(function.chunk.lineAt(ip - 1));
+    }
+
+    /**
+     * Concatenates two strings, charging the result to the {@link Memory} before building it.
+     * @param function
+     * @param ip position right after the ADD
+     * @param left a String or a {@link Rope}
+     * @param right a String or a {@link Rope}
+     * @return the concatenation, a rope if it is long.
+     */
+    private CharSequence concat(CompiledFunction function, int ip, CharSequence left, CharSequence right) {
+        memory.allocate(Rope.bytes(left, right), function.chunk.lineAt(ip - 1));
+        return Rope.concat(left, right);
+    }
+
+    /**
+     * Retains the globals and everything on the stack, locals of every frame included.
+     * @param memory
+     */
+    private void retainRoots(Memory memory) {
+        for (Object value : globals.values())
+            memory.retain(value);
+        for (int i = 0; i < sp; i++)
+            memory.retain(stack[i]);
+    }
+
+    private void checkNumbers(CompiledFunction function, int ip, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw error(function, ip, "Operands must be numbers.");
+    }
+
+    /**
+     * Builds a runtime error pointing at the line of the current instruction.
+     * @param function
+     * @param ip position right after the failing instruction
+     * @param message
+     * @return the error.
+     */
+    private RuntimeError error(CompiledFunction function, int ip, String message) {
+        return new RuntimeError(function.chunk.lineAt(ip - 1), message);
+    }
+    // <== Helper Methods
+}
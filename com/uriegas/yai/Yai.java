@@ -1,14 +1,14 @@
 package com.uriegas.yai;
 
 import java.io.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
 
 public class Yai{
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static Engine engine;
+    private static Context context;
 
     /**
      * Main entry point.
@@ -16,27 +16,135 @@ public class Yai{
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
+        if(args.length > 0 && args[0].equals("--compile")){
+            if(args.length == 2)
+                compileFile(args[1], args[1].replaceFirst("(\\.yai)?$", ".yaic"));
+            else if(args.length == 4 && args[2].equals("-o"))
+                compileFile(args[1], args[3]);
+            else
+                usage();
+            return;
+        }
+        if(args.length > 0 && args[0].equals("--client")){
+            if(args.length != 2)
+                usage();
+            System.exit(Client.run(Server.SOCKET, Paths.get(args[1])));
+        }
+        boolean useVm = false;
+        if(args.length > 0 && args[0].equals("--vm")){
+            useVm = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        engine = new Engine(useVm);
+        if(args.length > 0 && args[0].equals("--server")){
+            if(args.length != 1)
+                usage();
+            new Server(engine, Server.SOCKET).serve();
+            return;
+        }
+        context = engine.createContext();
+        Profiler profiler = null;
+        String profile = null; //Collapsed stacks file, empty to print the report
+        if(args.length > 0 && args[0].startsWith("--profile")){
+            if(useVm || !args[0].matches("--profile(=.+)?"))
+                usage();
+            profile = args[0].startsWith("--profile=") ? args[0].substring("--profile=".length()) : "";
+            profiler = context.profile();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if(args.length > 1 ){
-            System.out.println("Usage: yai [script]");
-            System.exit(1);
+            usage();
         }
         else if(args.length == 1){
-            runFile(args[0]);
+            int status = runFile(engine, context, Paths.get(args[0]), ErrorReporter.printingTo(System.err));
+            if (profiler != null) report(profiler, profile);
+            if (status != 0) System.exit(status);
         }
         else{
             runPrompt();
+            if (profiler != null) report(profiler, profile);
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: yai [--vm] [script.yai | script.yaic]");
+        System.out.println("       yai --profile[=stacks.folded] [script.yai | script.yaic]");
+        System.out.println("       yai --compile script.yai [-o script.yaic]");
+        System.out.println("       yai [--vm] --server");
+        System.out.println("       yai --client script");
+        System.exit(1);
+    }
+
     /**
-     * Execute a file.
+     * Execute a file, .yaic files are loaded already compiled.
+     * @param engine
+     * @param context
      * @param path
+     * @param errors
+     * @return the exit status, 1 if the script couldn't be compiled.
      * @throws IOException
      */
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(1);
+    static int runFile(Engine engine, Context context, Path path, ErrorReporter errors) throws IOException {
+        if (path.toString().endsWith(".yaic")) {
+            Program program = engine.load(path, errors);
+            if (program == null) return 1;
+            context.eval(program);
+            return 0;
+        }
+        Program program;
+        try (Reader source = open(path)) {
+            program = engine.prepare(source, errors);
+        }
+        if (program == null) return 1;
+        context.eval(program);
+        return 0;
+    }
+
+    /**
+     * Opens a script to be scanned as it is read, undecodable bytes are replaced like
+     * {@link String#String(byte[], Charset)} does.
+     * @param path
+     * @return the reader.
+     * @throws IOException
+     */
+    private static Reader open(Path path) throws IOException {
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return Channels.newReader(FileChannel.open(path), decoder, Scanner.CHUNK);
+    }
+
+    /**
+     * Prints the profile to stderr or writes it as collapsed stacks.
+     * @param profiler
+     * @param path collapsed stacks file, empty to print the report
+     * @throws IOException
+     */
+    private static void report(Profiler profiler, String path) throws IOException {
+        if (path.isEmpty()) {
+            profiler.report(System.err);
+            return;
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(path)))) {
+            profiler.writeCollapsed(out);
+        }
+    }
+
+    /**
+     * Compiles a script to a .yaic file.
+     * @param path
+     * @param output
+     * @throws IOException
+     */
+    private static void compileFile(String path, String output) throws IOException {
+        Program program;
+        try (Reader source = open(Paths.get(path))) {
+            program = new Engine(false, 0).prepare(source, ErrorReporter.printingTo(System.err));
+        }
+        if (program == null) System.exit(1);
+        try (OutputStream out = Files.newOutputStream(Paths.get(output))) {
+            program.write(out);
+        }
     }
     /**
      * Execute the REPL.
@@ -61,63 +169,7 @@ public class Yai{
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
-            hadError = false;
+            context.eval(line);
         }
     }
-    /**
-     * Execute a line of code.
-     * @param source
-     */
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scan();
-        Parser parser = new Parser(tokens);
-        // Expr expression = parser.parse();
-        List<Stmt> statements = parser.parse();
-        if (hadError) return;
-        // System.out.println(new ASTPrinter().print(expression));
-        interpreter.interpret(statements);
-    }
-
-    /**
-     * Reports an error.
-     * @param line
-     * @param message
-     */
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    /**
-     * Reports an error with token information.
-     * @param token
-     * @param message
-     */
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF)
-            report(token.line, " at end", message);
-        else
-            report(token.line, " at '" + token.lexeme + "'", message);
-    }
-
-    /**
-     * Reports an runtime error.
-     * @param error
-     */
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-
-    /**
-     * Print an error message.
-     * @param line
-     * @param where
-     * @param message
-     */
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
 }
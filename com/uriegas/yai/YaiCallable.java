@@ -5,4 +5,24 @@ import java.util.*;
 public interface YaiCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // ==> Fixed arity calls
+    // The caller has already checked the arity, implementations can override
+    // them to avoid building a list of arguments.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object argument) {
+        return call(interpreter, Collections.singletonList(argument));
+    }
+
+    default Object call2(Interpreter interpreter, Object first, Object second) {
+        return call(interpreter, Arrays.asList(first, second));
+    }
+
+    default Object callN(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
+    // <== Fixed arity calls
 }
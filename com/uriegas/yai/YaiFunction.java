@@ -3,7 +3,12 @@ package com.uriegas.yai;
 import java.util.*;
 
 public class YaiFunction implements YaiCallable {
-    private final Stmt.Function declaration;
+    /** Returned by a body that ended in a tail call, the call itself is left in the {@link Interpreter}. */
+    static final Object TAIL_CALL = new Object();
+
+    final Stmt.Function declaration;
+    private JitCompiler.Body compiled; //Set once the function gets hot
+    private int calls = 0;
 
     public YaiFunction(Stmt.Function declaration) {
         this.declaration = declaration;
@@ -11,20 +16,111 @@ public class YaiFunction implements YaiCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // List<Stmt> body = declaration.body;
-        Environment environment = new Environment(interpreter.globals);
+        return callN(interpreter, arguments.toArray());
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (isCompiled(interpreter))
+            return complete(interpreter, compiled.invoke(interpreter, this, new Object[0]));
+        return complete(interpreter, run(interpreter, interpreter.newEnvironment(interpreter.globals, declaration.locals, declaration.name.line)));
+    }
 
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    @Override
+    public Object call1(Interpreter interpreter, Object argument) {
+        if (isCompiled(interpreter))
+            return complete(interpreter, compiled.invoke(interpreter, this, new Object[] {argument}));
+        Environment environment = interpreter.newEnvironment(interpreter.globals, declaration.locals, declaration.name.line);
+        environment.defineAt(0, argument);
+        return complete(interpreter, run(interpreter, environment));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object first, Object second) {
+        if (isCompiled(interpreter))
+            return complete(interpreter, compiled.invoke(interpreter, this, new Object[] {first, second}));
+        Environment environment = interpreter.newEnvironment(interpreter.globals, declaration.locals, declaration.name.line);
+        environment.defineAt(0, first);
+        environment.defineAt(1, second);
+        return complete(interpreter, run(interpreter, environment));
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Object[] arguments) {
+        return complete(interpreter, start(interpreter, arguments));
+    }
+
+    /**
+     * Runs the body once, it may end in a pending tail call.
+     * @param interpreter
+     * @param arguments
+     * @return the returned value or {@link #TAIL_CALL}.
+     */
+    private Object start(Interpreter interpreter, Object[] arguments) {
+        if (isCompiled(interpreter))
+            return compiled.invoke(interpreter, this, arguments);
+        Environment environment = interpreter.newEnvironment(interpreter.globals, declaration.locals, declaration.name.line);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.defineAt(i, arguments[i]);
         }
+        return run(interpreter, environment);
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+    /**
+     * Trampoline: runs the tail calls a body ended with in this same Java frame,
+     * so self and mutual tail recursion use constant stack.
+     * @param interpreter
+     * @param result what the first body returned
+     * @return the value finally returned.
+     */
+    static Object complete(Interpreter interpreter, Object result) {
+        while (result == TAIL_CALL) {
+            YaiCallable callee = interpreter.tailCallee;
+            Object[] arguments = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailArguments = null;
+            interpreter.calls++;
+            if (interpreter.profiler != null)
+                interpreter.profiler.tailCall(callee);
+            if (!(callee instanceof YaiFunction))
+                return callee.callN(interpreter, arguments);
+            result = ((YaiFunction) callee).start(interpreter, arguments);
         }
+        return result;
+    }
+
+    /**
+     * Counts a call and compiles the function once it gets hot.
+     * Functions of a profiled interpreter stay interpreted so the {@link Profiler} sees every statement,
+     * so do the ones of an interpreter with a memory limit: compiled code keeps its locals where
+     * the {@link Memory} recount can't see them.
+     * @param interpreter
+     * @return true if the call should go to the compiled body.
+     */
+    private boolean isCompiled(Interpreter interpreter) {
+        if (compiled != null)
+            return true;
+        if (calls <= JitCompiler.THRESHOLD && ++calls == JitCompiler.THRESHOLD
+                && interpreter.profiler == null && !interpreter.memory.isLimited())
+            compiled = JitCompiler.compiled(declaration); //Stays null if the function can't be compiled
+        return false;
+    }
 
-        return null;
+    /**
+     * Interprets the body with the parameters already bound.
+     * @param interpreter
+     * @param environment
+     * @return the returned value or {@link #TAIL_CALL}.
+     */
+    private Object run(Interpreter interpreter, Environment environment) {
+        switch (interpreter.executeBlock(declaration.body, environment)) {
+            case RETURN:
+                return interpreter.takeReturnValue();
+            case TAIL_CALL:
+                return TAIL_CALL;
+            default:
+                return null;
+        }
     }
 
     @Override
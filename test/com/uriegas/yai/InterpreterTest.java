@@ -0,0 +1,132 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Scripts run on the tree {@link Interpreter}.
+ */
+class InterpreterTest {
+    private static final String DEPTH = "def d(n) { if (n == 0) return 0; return 1 + d(n - 1); }";
+
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            errors.add("[line " + line + "] " + message);
+        }
+    };
+
+    private Context.Status run(Engine engine, String source) {
+        return engine.createContext(lines::add, reporter).eval(source);
+    }
+
+    @Test
+    void recursionReachesTheMaximumDepth() {
+        Engine engine = new Engine(false);
+        //d(n) nests n + 1 calls
+        assertEquals(Context.Status.OK, run(engine, DEPTH + "print d(" + (Interpreter.MAX_DEPTH - 1) + ");"), errors::toString);
+        assertEquals(List.of(String.valueOf(Interpreter.MAX_DEPTH - 1)), lines);
+    }
+
+    @Test
+    void recursionPastTheMaximumDepthOverflows() {
+        Engine engine = new Engine(false);
+        assertEquals(Context.Status.RUNTIME_ERROR, run(engine, DEPTH + "print d(" + Interpreter.MAX_DEPTH + ");"));
+        assertEquals(List.of("[line 1] Stack overflow."), errors);
+    }
+
+    @Test
+    void recursionStopsAtTheConfiguredDepth() {
+        Engine engine = new Engine(false, 0, new Limits(0, 0, 5000));
+        assertEquals(Context.Status.OK, run(engine, DEPTH + "print d(4999);"), errors::toString);
+        assertEquals(Context.Status.RUNTIME_ERROR, run(engine, DEPTH + "print d(5000);"));
+        assertEquals(List.of("4999"), lines);
+        assertEquals(List.of("[line 1] Stack overflow."), errors);
+    }
+
+    @Test
+    void recursionCrossesTheJavaDepthRepeatedly() {
+        Engine engine = new Engine(false);
+        String source = DEPTH + "var i = 0; while (i < 2000) { d(300); i = i + 1; } print d(4999);";
+        assertEquals(Context.Status.OK, run(engine, source), errors::toString);
+        assertEquals(List.of("4999"), lines);
+    }
+
+    @Test
+    void recursionReachesTheMaximumDepthOnASmallThreadStack() throws InterruptedException {
+        Engine engine = new Engine(false);
+        Context.Status[] status = new Context.Status[1];
+        Thread thread = new Thread(null, () -> status[0] = run(engine, DEPTH + "print d(" + (Interpreter.MAX_DEPTH - 1) + ");"),
+                "small-stack", 512 * 1024);
+        thread.start();
+        thread.join();
+        assertEquals(Context.Status.OK, status[0], errors::toString);
+        assertEquals(List.of(String.valueOf(Interpreter.MAX_DEPTH - 1)), lines);
+    }
+
+    @Test
+    void deepCallsRunLikeShallowOnes() {
+        Engine engine = new Engine(false);
+        //Each function recurses past the Java depth before doing its work
+        String source = "def s(n) { if (n == 0) return \"\"; var r = s(n - 1);"
+                + " { var t = r + \"a\"; if (n == 3000) print t == r + \"a\"; }"
+                + " var i = 0; while (i < 2) i = i + 1; if (n > 2995) return r + \"b\"; return r; }"
+                + "print s(3000);"
+                + "def acc(n, a) { if (n == 0) return a; return acc(n - 1, a + 1); }"
+                + "def t(n) { if (n == 0) return acc(100000, 0); return t(n - 1) - 1; }"
+                + "print t(1000);"
+                + "def f(n) { if (n == 0) return 1; return f(n - 1) + 1; }"
+                + "print f(200) == 201 and !(f(300) != 301) or false;"
+                + "var g = 0; def h(n) { if (n == 0) return g; g = g + n; return -h(n - 1); } print h(500);"
+                + "def e(n) { if (n == 0) return -\"x\"; return e(n - 1) + 1; }"
+                + "e(500);";
+        assertEquals(Context.Status.RUNTIME_ERROR, run(engine, source));
+        assertEquals(List.of("true", "bbbbb", "99000", "true", "125250"), lines);
+        assertEquals(List.of("[line 1] Operand must be a number."), errors);
+        //The context still runs deep calls after the error
+        assertEquals(Context.Status.OK, run(engine, DEPTH + "print d(1000);"), errors::toString);
+        assertEquals("1000", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    void contextsRunningOneProgramKeepTheirOwnCaches() {
+        Engine engine = new Engine(false);
+        Program functions = engine.prepare("var n = 1; def f(x) { return x + n; }", reporter);
+        Program loop = engine.prepare("var i = 0; while (i < 50) { print f(i); i = i + 1; }", reporter);
+        List<String> other = new ArrayList<>();
+        Context second = engine.createContext(other::add, reporter);
+        //Every line the first context prints runs the whole loop in the second one
+        Context first = engine.createContext(line -> {
+            lines.add(line);
+            assertEquals(Context.Status.OK, second.eval(loop));
+        }, reporter);
+        assertEquals(Context.Status.OK, first.eval(functions));
+        assertEquals(Context.Status.OK, second.eval(functions));
+        long firstMisses = first.interpreter.cacheMisses, secondMisses = second.interpreter.cacheMisses;
+        assertEquals(Context.Status.OK, first.eval(loop), errors::toString);
+        assertEquals(50, lines.size());
+        assertEquals(50 * 50, other.size());
+        //Each context misses once per site: i four times, f, the call and n in the body of f
+        assertEquals(7, first.interpreter.cacheMisses - firstMisses);
+        assertEquals(7, second.interpreter.cacheMisses - secondMisses);
+    }
+
+    @Test
+    void speculationUndoneByANestedCallFallsBackToTheGenericValue() {
+        Engine engine = new Engine(false);
+        //The inner call turns ga + gb into a concatenation after the outer == chose to compare numbers
+        String source = "var ga = 1; var gb = 2;"
+                + "def f(n) { if (n == 0) return 0; print (f(n - 1) + 1) == (ga + gb); return 0; }"
+                + "f(1); ga = \"x\"; gb = \"y\"; f(2);";
+        assertEquals(Context.Status.OK, run(engine, source), errors::toString);
+        assertEquals(List.of("false", "false", "false"), lines);
+    }
+}
@@ -0,0 +1,97 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Fuel, time and depth {@link Limits} on every engine: the tree {@link Interpreter} alone, with the
+ * {@link JitCompiler} and the {@link VM} (see {@link ParityTest}). A script over a limit stops with
+ * a runtime error and its context runs the next one.
+ */
+class LimitsTest {
+    private static final String DEPTH = "def d(n) { if (n == 0) return 0; return 1 + d(n - 1); }";
+
+    private final List<String> lines = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            lines.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            lines.add("[line " + line + "] " + message);
+        }
+    };
+
+    /**
+     * @param fuel
+     * @param timeMillis
+     * @param maxDepth
+     * @return a context of each engine, by name.
+     */
+    private Map<String, Context> contexts(long fuel, long timeMillis, int maxDepth) {
+        Map<String, Context> contexts = new LinkedHashMap<>();
+        contexts.put("interpreter", new Engine(false, 0, new Limits(fuel, timeMillis, maxDepth, 1L << 40))
+                .createContext(lines::add, reporter));
+        contexts.put("jit", new Engine(false, 0, new Limits(fuel, timeMillis, maxDepth)).createContext(lines::add, reporter));
+        contexts.put("vm", new Engine(true, 0, new Limits(fuel, timeMillis, maxDepth)).createContext(lines::add, reporter));
+        return contexts;
+    }
+
+    @Test
+    void fuelStopsLoopsAndCalls() {
+        for (Map.Entry<String, Context> entry : contexts(1000, 0, Interpreter.MAX_DEPTH).entrySet()) {
+            Context context = entry.getValue();
+            lines.clear();
+            assertEquals(Context.Status.RUNTIME_ERROR, context.eval("var i = 0;\nwhile (true) i = i + 1;"));
+            assertEquals(Context.Status.OK, context.eval("print i;"));
+            //Tail calls take fuel too
+            context.eval("def f(n) { i = n; if (n == 0) return 0; return f(n - 1); }\nf(5000);");
+            context.eval("print i;");
+            context.eval("def g(n) { i = n; return n + 1; }\nvar k = 0; while (true) k = g(k);");
+            context.eval("print i;");
+            String exhausted = "Execution budget of 1000 loop iterations and calls exhausted.";
+            assertEquals(List.of("[line 2] " + exhausted, "1001", "[line 1] " + exhausted, "4001", "[line 2] " + exhausted, "499"),
+                    lines, entry.getKey());
+        }
+    }
+
+    @Test
+    void fuelStopsCompiledFunctions() {
+        for (Map.Entry<String, Context> entry : contexts(20_000, 0, Interpreter.MAX_DEPTH).entrySet()) {
+            lines.clear();
+            //h is compiled after JitCompiler.THRESHOLD calls, its loop still takes fuel
+            String source = "var i = 0; def h(n) { var j = 0; while (j < 3) j = j + 1; i = n; return n + 1; }\n"
+                    + "var k = 0; while (true) k = h(k);";
+            assertEquals(Context.Status.RUNTIME_ERROR, entry.getValue().eval(source), entry.getKey());
+            entry.getValue().eval("print i;");
+            assertEquals(List.of("[line 2] Execution budget of 20000 loop iterations and calls exhausted.", "3999"),
+                    lines, entry.getKey());
+        }
+    }
+
+    @Test
+    void timeStopsEndlessScripts() {
+        for (Map.Entry<String, Context> entry : contexts(0, 100, Interpreter.MAX_DEPTH).entrySet()) {
+            lines.clear();
+            long start = System.nanoTime();
+            assertEquals(Context.Status.RUNTIME_ERROR, entry.getValue().eval("def step(i) { return i + 1; }\nvar i = 0;\nwhile (true) i = step(i);"));
+            assertTrue(System.nanoTime() - start < 10_000_000_000L, entry.getKey());
+            assertEquals(List.of("[line 3] Time limit of 100 ms exceeded."), lines, entry.getKey());
+            //The next script gets its own time
+            assertEquals(Context.Status.OK, entry.getValue().eval("print step(1);"), entry.getKey());
+        }
+    }
+
+    @Test
+    void depthStopsRecursion() {
+        for (Map.Entry<String, Context> entry : contexts(0, 0, 300).entrySet()) {
+            lines.clear();
+            assertEquals(Context.Status.OK, entry.getValue().eval(DEPTH + "print d(299);"), entry.getKey());
+            assertEquals(Context.Status.RUNTIME_ERROR, entry.getValue().eval(DEPTH + "print d(300);"), entry.getKey());
+            assertEquals(List.of("299", "[line 1] Stack overflow."), lines, entry.getKey());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The {@link Memory} meter on its own and the memory limit of scripts.
+ */
+class MemoryTest {
+    private static final long LIMIT = 1 << 20;
+
+    private final List<String> live = new ArrayList<>(); //Roots of the meter
+    private final Memory memory = new Memory(LIMIT, meter -> live.forEach(meter::retain));
+
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            errors.add("[line " + line + "] " + message);
+        }
+    };
+
+    private void hold(int length) {
+        memory.allocate(Memory.string(length), 1);
+        live.add(new String(new char[length]));
+    }
+
+    @Test
+    void garbageNeverReachesTheLimit() {
+        for (int i = 0; i < 100_000; i++)
+            memory.allocate(Memory.string(1000), 1);
+        assertTrue(memory.peak() <= LIMIT);
+        assertEquals(0, memory.used());
+    }
+
+    @Test
+    void reachableValuesOverTheLimitRaise() {
+        RuntimeError error = assertThrows(RuntimeError.class, () -> {
+            while (true) hold(1000);
+        });
+        assertEquals("Memory limit of " + LIMIT + " bytes exceeded.", error.getMessage());
+        assertTrue(memory.used() <= LIMIT);
+        assertTrue(memory.used() > LIMIT - Memory.string(1000));
+    }
+
+    @Test
+    void recountsStayProportionalToTheAllocations() {
+        for (int i = 0; i < 900; i++)
+            hold(500); //About 0.9 MB reachable
+        assertTrue(memory.recounts < 20, "recounts: " + memory.recounts);
+        //Close to the limit the garbage still gets room between recounts
+        long before = memory.recounts;
+        for (int i = 0; i < 100_000; i++)
+            memory.allocate(Memory.string(10), 1);
+        long recounts = memory.recounts - before;
+        assertTrue(recounts <= 100_000 * Memory.string(10) / Memory.SLACK, "recounts: " + recounts);
+    }
+
+    private Context.Status run(boolean vm, String source) {
+        Engine engine = new Engine(vm, 0, new Limits(0, 0, Interpreter.MAX_DEPTH, 256 * 1024));
+        return engine.createContext(lines::add, reporter).eval(source);
+    }
+
+    @Test
+    void scriptsKeepingTooMuchStop() {
+        for (boolean vm : new boolean[] {false, true}) {
+            errors.clear();
+            assertEquals(Context.Status.RUNTIME_ERROR, run(vm, "var s = \"x\";\nwhile (true) s = s + s;"));
+            assertEquals(List.of("[line 2] Memory limit of 262144 bytes exceeded."), errors);
+        }
+    }
+
+    @Test
+    void scriptsMakingGarbageRun() {
+        for (boolean vm : new boolean[] {false, true}) {
+            String source = "var a = \"abcdefghij\"; var s = a; var i = 0;"
+                    + "while (i < 20000) { s = a + s + a; if (s == a + a + a + a + a) s = a; i = i + 1; } print i;";
+            assertEquals(Context.Status.OK, run(vm, source), errors::toString);
+        }
+        assertEquals(List.of("20000", "20000"), lines);
+    }
+}
@@ -0,0 +1,66 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Numbers} prints what {@link Double#toString} does, without the trailing {@code .0}.
+ */
+class NumbersTest {
+    private static String expected(double value) {
+        String text = Double.toString(value);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    private static void assertFormats(double value) {
+        char[] buffer = new char[Numbers.MAX_LENGTH];
+        int length = Numbers.format(value, buffer);
+        assertEquals(expected(value), new String(buffer, 0, length), () -> "bits " + Double.doubleToRawLongBits(value));
+    }
+
+    @Test
+    void formatsSpecialValues() {
+        double[] values = {0.0, -0.0, 1, -1, 0.1, 0.5, 1.5, 0.001, 0.000999, 9999999, 9999999.5, 1e7, 1e-3, 1e21, 1e22, 1e23,
+            0.1 + 0.2, 1.0 / 3, 2.0 / 3, 100.0 / 7, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL,
+            Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN, Long.MAX_VALUE, -123456789 * 1e12};
+        for (double value : values)
+            assertFormats(value);
+        assertEquals("4084464.8499999996", Numbers.toString(4084464.8499999996));
+        assertEquals("-0", Numbers.toString(-0.0));
+        assertEquals("12", Numbers.toString(12));
+    }
+
+    @Test
+    void formatsValuesNearTheBounds() {
+        for (double bound : new double[] {1e-3, 1e7}) {
+            double below = bound, above = bound;
+            for (int i = 0; i < 1000; i++) {
+                below = Math.nextDown(below);
+                above = Math.nextUp(above);
+                assertFormats(below);
+                assertFormats(above);
+                assertFormats(-below);
+            }
+        }
+    }
+
+    @Test
+    void formatsRandomDecimals() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long digits = random.nextLong() % 1_000_000_000_000_000L;
+            int scale = random.nextInt(20);
+            assertFormats(digits / Math.pow(10, scale)); //Short decimals, like scripts print
+            assertFormats(random.nextInt(20_000_000) - 10_000_000);
+            assertFormats(random.nextDouble() * Math.pow(10, random.nextInt(14) - 4));
+        }
+    }
+
+    @Test
+    void formatsRandomBits() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++)
+            assertFormats(Double.longBitsToDouble(random.nextLong()));
+    }
+}
@@ -0,0 +1,103 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * What the {@link Optimizer} folds and prunes, and what it leaves for runtime.
+ */
+class OptimizerTest {
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            errors.add("[line " + line + "] " + message);
+        }
+    };
+
+    private List<Stmt> optimize(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source, reporter), reporter).parse();
+        new Resolver(reporter).resolve(statements);
+        assertEquals(List.of(), errors);
+        return Optimizer.optimize(statements);
+    }
+
+    /**
+     * @param source ending with a print statement
+     * @return what it prints.
+     */
+    private Expr printed(String source) {
+        List<Stmt> statements = optimize(source);
+        return ((Stmt.Print) statements.get(statements.size() - 1)).expression;
+    }
+
+    private Object folded(String source) {
+        Expr expr = printed(source);
+        assertInstanceOf(Expr.Literal.class, expr, source);
+        return ((Expr.Literal) expr).value;
+    }
+
+    @Test
+    void foldsArithmeticAndComparisons() {
+        assertEquals(7.0, folded("print 1 + 2 * 3;"));
+        assertEquals(-1.5, folded("print -(3 / 2);"));
+        assertEquals(true, folded("print (2 - 1) < 3 == !false;"));
+        assertEquals(false, folded("print 1 != 1;"));
+        assertEquals(true, folded("print null == null;"));
+    }
+
+    @Test
+    void foldsDivisionByZeroLikeTheInterpreter() {
+        assertEquals(Double.POSITIVE_INFINITY, folded("print 1 / 0;"));
+        assertEquals(Double.NEGATIVE_INFINITY, folded("print -1 / 0;"));
+        assertTrue(Double.isNaN((double) folded("print 0 / 0;")));
+        assertEquals(Context.Status.OK, new Engine(false, 0).createContext(lines::add, reporter)
+                .eval("var z = 0; print 1 / 0 == 1 / z; print 0 / 0 == 0 / z;")); //Equality of NaNs is Double.equals
+        assertEquals(List.of("true", "true"), lines);
+    }
+
+    @Test
+    void foldsStringConcatenation() {
+        assertEquals("abc", folded("print \"a\" + (\"b\" + \"c\");"));
+        assertEquals(true, folded("print \"a\" + \"b\" == \"ab\";"));
+    }
+
+    @Test
+    void leavesWhatWouldFailAtRuntime() {
+        assertInstanceOf(Expr.Binary.class, printed("print \"a\" + 1;"));
+        assertInstanceOf(Expr.Binary.class, printed("print \"a\" - \"b\";"));
+        assertInstanceOf(Expr.Unary.class, printed("print -\"a\";"));
+        assertEquals(Context.Status.RUNTIME_ERROR, new Engine(false, 0).createContext(lines::add, reporter)
+                .eval("if (false) print -\"a\"; print 1;\nprint \"a\" + 1;"));
+        assertEquals(List.of("1"), lines);
+        assertEquals(List.of("[line 2] Operands must be two numbers or two strings."), errors);
+    }
+
+    @Test
+    void appliesOnlyExactIdentities() {
+        Expr product = printed("var a; print (a * 2) * 1;");
+        assertInstanceOf(Expr.Binary.class, product);
+        assertEquals(TokenType.STAR, ((Expr.Binary) product).operator.type);
+        assertInstanceOf(Expr.Variable.class, ((Expr.Binary) product).left); //a * 2
+        //a may not be a number, and x + 0 is not x for -0
+        assertInstanceOf(Expr.Binary.class, printed("var a; print a * 1;"));
+        assertInstanceOf(Expr.Binary.class, printed("var a; print (a * 2) + 0;"));
+        assertInstanceOf(Expr.Binary.class, printed("var a; print -(-(a * 2));")); //a * 2 is numeric
+        assertInstanceOf(Expr.Unary.class, printed("var a; print -(-a);"));
+    }
+
+    @Test
+    void prunesConstantBranches() {
+        assertEquals(1.0, ((Expr.Literal) printed("if (1 < 2) print 1; else print 2;")).value);
+        assertEquals(List.of(), optimize("while (false) print 1; if (null) print 2;"));
+        assertInstanceOf(Expr.Variable.class, printed("var a; print false or a;"));
+        assertEquals("x", folded("var a; print \"x\" or a;"));
+    }
+}
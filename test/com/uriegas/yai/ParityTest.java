@@ -0,0 +1,81 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The same scripts on every execution engine: the tree {@link Interpreter} alone, the interpreter
+ * with its hot functions compiled by the {@link JitCompiler}, and the {@link VM}. <br>
+ * Every script calls its functions more than {@link JitCompiler#THRESHOLD} times, so they get compiled
+ * while running. A memory limit keeps functions interpreted (see {@link YaiFunction}), that is the
+ * interpreter alone.
+ */
+class ParityTest {
+    private static final String[][] SCRIPTS = {
+        {"def mix(a, b) { var c = a * b - a / b; if (c > 10 and a != b) return c + 0.5; return -c; }\n"
+            + "var sum = 0; var k = 1;\n"
+            + "for (var i = 1; i <= 1500; i = i + 1) { sum = sum + mix(i, k); k = k + 1; if (k > 7) k = 1; }\n"
+            + "print sum;",
+            "4084464.8499999996"},
+        {"def tag(s, n) { if (n == 0) return s + \"!\"; if (!(n > 1)) return s; return null; }\n"
+            + "var out = \"\"; var nulls = 0; var i = 0; var k = 0;\n"
+            + "while (i < 1200) { var t = tag(\"a\", k); if (t == null) nulls = nulls + 1; else out = out + t;"
+            + " i = i + 1; k = k + 1; if (k == 3) k = 0; }\n"
+            + "print nulls; print out == out + \"\"; print \"x\" + \"y\" == \"xy\";",
+            "400", "true", "true"},
+        {"def fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+            + "print fib(20);\n"
+            + "def even(n) { if (n == 0) return true; return odd(n - 1); }\n"
+            + "def odd(n) { if (n == 0) return false; return even(n - 1); }\n"
+            + "print even(100001); print odd(100001);\n"
+            + "def count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }\n"
+            + "print count(200000, 0);",
+            "6765", "false", "true", "200000"},
+        {"var g = 0;\n"
+            + "def bump(x) { g = g + x; { var g = 100; g = g + 1; } return g; }\n"
+            + "var i = 0; while (i < 1100) { bump(2); i = i + 1; }\n"
+            + "print g; print 0.1 + 0.2; print 1 / 3; print 100 / 0; print -100 / 0; print 123456789 * 1000000000000;\n"
+            + "print 7 - 7 == 0; print !null; print 3 >= 3 and 2 <= 1 or \"z\";",
+            "2200", "0.30000000000000004", "0.3333333333333333", "Infinity", "-Infinity", "1.23456789E20",
+            "true", "true", "z"},
+        {"def f(n) { if (n == 1050) return -\"x\"; return n + 1; }\n"
+            + "var i = 0;\n"
+            + "while (i < 2000) {\n"
+            + "  i = f(i);\n"
+            + "}\n"
+            + "print \"unreachable\";",
+            "[line 1] Operand must be a number."},
+    };
+
+    private static List<String> run(Engine engine, String source) {
+        List<String> lines = new ArrayList<>();
+        ErrorReporter reporter = new ErrorReporter() {
+            @Override
+            public void error(int line, String where, String message) {
+                lines.add("[line " + line + "] Error" + where + ": " + message);
+            }
+
+            @Override
+            public void runtimeError(int line, String message) {
+                lines.add("[line " + line + "] " + message);
+            }
+        };
+        engine.createContext(lines::add, reporter).eval(source);
+        return lines;
+    }
+
+    @Test
+    void everyEnginePrintsTheSame() {
+        assertTrue(JitCompiler.THRESHOLD > 0 && JitCompiler.THRESHOLD <= 1000, "yai.jit.threshold");
+        Map<String, Engine> engines = new LinkedHashMap<>();
+        engines.put("interpreter", new Engine(false, 0, new Limits(0, 0, Interpreter.MAX_DEPTH, 1L << 40)));
+        engines.put("jit", new Engine(false, 0));
+        engines.put("vm", new Engine(true, 0));
+        for (String[] script : SCRIPTS) {
+            List<String> expected = Arrays.asList(script).subList(1, script.length);
+            for (Map.Entry<String, Engine> engine : engines.entrySet())
+                assertEquals(expected, run(engine.getValue(), script[0]), engine.getKey() + ":\n" + script[0]);
+        }
+    }
+}
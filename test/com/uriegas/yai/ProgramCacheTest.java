@@ -0,0 +1,61 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bounds of the {@link ProgramCache}.
+ */
+class ProgramCacheTest {
+    private final Engine engine = new Engine(false, 0);
+
+    private String source(int length) {
+        char[] padding = new char[length - 9];
+        Arrays.fill(padding, ' ');
+        return "print 1;" + new String(padding) + "\n";
+    }
+
+    private Program program(String source) {
+        return engine.prepare(source, ErrorReporter.printingTo(System.err));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedPastTheBytes() {
+        ProgramCache cache = new ProgramCache(100, 3 * Memory.string(1002));
+        String a = source(1000), b = source(1001), c = source(1002), d = source(1003);
+        Program first = program(a);
+        assertSame(first, cache.put(a, first));
+        cache.put(b, program(b));
+        cache.put(c, program(c));
+        assertSame(first, cache.get(a)); //b is the eldest now
+        cache.put(d, program(d));
+        assertNull(cache.get(b));
+        assertSame(first, cache.get(a));
+        assertNotNull(cache.get(c));
+        assertNotNull(cache.get(d));
+        assertEquals(Memory.string(1000) + Memory.string(1002) + Memory.string(1003), cache.bytes());
+    }
+
+    @Test
+    void neverKeepsASourceOverTheBytes() {
+        ProgramCache cache = new ProgramCache(100, Memory.string(1000));
+        String small = source(500), large = source(1001);
+        cache.put(small, program(small));
+        Program program = program(large);
+        assertSame(program, cache.put(large, program));
+        assertNull(cache.get(large));
+        assertNotNull(cache.get(small));
+    }
+
+    @Test
+    void evictsPastTheCount() {
+        ProgramCache cache = new ProgramCache(2, Long.MAX_VALUE);
+        String a = source(10), b = source(11), c = source(12);
+        cache.put(a, program(a));
+        cache.put(b, program(b));
+        cache.put(c, program(c));
+        assertNull(cache.get(a));
+        assertEquals(Memory.string(11) + Memory.string(12), cache.bytes());
+    }
+}
@@ -0,0 +1,95 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Programs written to .yaic files with {@link Program#write} and loaded back with {@link Engine#load}.
+ */
+class ProgramTest {
+    private static final String SCRIPT = "var greeting = \"h\u00e9llo\" + \" world\";\n"
+            + "def fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+            + "def count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }\n"
+            + "{ var local = 0.1; for (var i = 0; i < 3; i = i + 1) local = local * 2; print local; }\n"
+            + "print greeting; print fib(15); print count(50000, 0); print !null and 1 / 0 > 1 or false;\n"
+            + "while (false) print \"pruned\";\n"
+            + "print -greeting;";
+
+    @TempDir
+    Path dir;
+
+    private final List<String> lines = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            lines.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            lines.add("[line " + line + "] " + message);
+        }
+    };
+
+    private List<String> run(Engine engine, Program program) {
+        lines.clear();
+        engine.createContext(lines::add, reporter).eval(program);
+        return new ArrayList<>(lines);
+    }
+
+    private Path write(Program program, String name) throws IOException {
+        Path file = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            program.write(out);
+        }
+        return file;
+    }
+
+    @Test
+    void loadedProgramsRunLikeTheirSource() throws IOException {
+        Engine tree = new Engine(false, 0), vm = new Engine(true, 0);
+        Program prepared = tree.prepare(SCRIPT, reporter);
+        List<String> expected = run(tree, prepared);
+        assertEquals(List.of("0.8", "h\u00e9llo world", "610", "50000", "true", "[line 7] Operand must be a number."),
+                expected);
+        Path file = write(prepared, "script.yaic");
+        assertEquals(expected, run(tree, tree.load(file, reporter)));
+        assertEquals(expected, run(vm, vm.load(file, reporter)));
+    }
+
+    @Test
+    void writingALoadedProgramGivesTheSameFile() throws IOException {
+        Engine engine = new Engine(false, 0);
+        Path first = write(engine.prepare(SCRIPT, reporter), "first.yaic");
+        Path second = write(engine.load(first, reporter), "second.yaic");
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+
+    @Test
+    void rejectsFilesThatAreNotPrograms() throws IOException {
+        Engine engine = new Engine(false, 0);
+        byte[] bytes = Files.readAllBytes(write(engine.prepare(SCRIPT, reporter), "script.yaic"));
+
+        Path text = Files.write(dir.resolve("text.yaic"), SCRIPT.getBytes(StandardCharsets.UTF_8));
+        assertEquals("Not a compiled YAI script", assertThrows(IOException.class, () -> engine.load(text, reporter)).getMessage());
+
+        byte[] versioned = bytes.clone();
+        versioned[5]++;
+        Path other = Files.write(dir.resolve("other.yaic"), versioned);
+        assertEquals("Compiled with format version " + (AstWriter.VERSION + 1) + ", expected " + AstWriter.VERSION,
+                assertThrows(IOException.class, () -> engine.load(other, reporter)).getMessage());
+
+        Path truncated = Files.write(dir.resolve("truncated.yaic"), Arrays.copyOf(bytes, bytes.length - 5));
+        assertEquals(truncated + " is truncated or corrupt",
+                assertThrows(IOException.class, () -> engine.load(truncated, reporter)).getMessage());
+
+        Path extended = Files.write(dir.resolve("extended.yaic"), Arrays.copyOf(bytes, bytes.length + 1));
+        assertEquals("Unexpected data after the program",
+                assertThrows(IOException.class, () -> engine.load(extended, reporter)).getMessage());
+    }
+}
@@ -0,0 +1,108 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Depths and slots given by the {@link Resolver}, and its errors.
+ */
+class ResolverTest {
+    private final List<String> errors = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            errors.add("[line " + line + "] " + message);
+        }
+    };
+
+    private List<Stmt> resolve(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source, reporter), reporter).parse();
+        assertEquals(List.of(), errors);
+        new Resolver(reporter).resolve(statements);
+        return statements;
+    }
+
+    private static List<Stmt> body(Stmt block) {
+        return ((Stmt.Block) block).statements;
+    }
+
+    private static Expr.Variable printed(Stmt print) {
+        return (Expr.Variable) ((Stmt.Print) print).expression;
+    }
+
+    private static void assertAt(int depth, int slot, Expr.Variable variable) {
+        assertEquals(depth, variable.depth, variable.name.lexeme + " depth");
+        if (depth >= 0)
+            assertEquals(slot, variable.slot, variable.name.lexeme + " slot");
+    }
+
+    @Test
+    void innerDeclarationsShadowOuterOnes() {
+        List<Stmt> outer = body(resolve("{ var a = 1; var b = 2; { var a = a; print a; print b; } print a; }").get(0));
+        assertEquals(1, ((Stmt.Var) outer.get(1)).slot);
+        List<Stmt> inner = body(outer.get(2));
+        Stmt.Var shadow = (Stmt.Var) inner.get(0);
+        assertAt(1, 0, (Expr.Variable) shadow.initializer); //Reads the outer a
+        assertEquals(0, shadow.slot);
+        assertAt(0, 0, printed(inner.get(1)));
+        assertAt(1, 1, printed(inner.get(2)));
+        assertAt(0, 0, printed(outer.get(3)));
+        assertEquals(2, ((Stmt.Block) resolve("{ var a = 1; var b = 2; }").get(0)).locals);
+        assertEquals(1, ((Stmt.Block) outer.get(2)).locals);
+    }
+
+    @Test
+    void redeclaringReusesTheSlot() {
+        Stmt.Block block = (Stmt.Block) resolve("{ var a = 1; var a = 2; print a; }").get(0);
+        assertEquals(1, block.locals);
+        assertEquals(0, ((Stmt.Var) block.statements.get(1)).slot);
+        assertAt(0, 0, printed(block.statements.get(2)));
+    }
+
+    @Test
+    void blocksWithoutDeclarationsHaveNoScope() {
+        List<Stmt> outer = body(resolve("{ var a = 1; { print a; } }").get(0));
+        Stmt.Block inner = (Stmt.Block) outer.get(1);
+        assertEquals(0, inner.locals);
+        assertAt(0, 0, printed(inner.statements.get(0)));
+    }
+
+    @Test
+    void functionsSeeTheirLocalsAndTheGlobals() {
+        List<Stmt> program = resolve("var g = 1; { var l = 2; def f(x, y) { { var z = y; print x; print g; print l; } print z; } }");
+        assertEquals(-1, ((Stmt.Var) program.get(0)).slot);
+        Stmt.Function function = (Stmt.Function) body(program.get(1)).get(1);
+        assertEquals(1, function.slot);
+        assertEquals(2, function.locals);
+        List<Stmt> inner = body(function.body.get(0));
+        assertAt(1, 1, (Expr.Variable) ((Stmt.Var) inner.get(0)).initializer);
+        assertAt(1, 0, printed(inner.get(1)));
+        assertAt(-1, 0, printed(inner.get(2)));
+        assertAt(-1, 0, printed(inner.get(3))); //No closures, the block's l is out of reach
+        assertAt(-1, 0, printed(function.body.get(1))); //z's scope is over
+    }
+
+    @Test
+    void assignmentsResolveLikeReads() {
+        List<Stmt> block = body(resolve("{ var a = 1; { var b = 2; a = b; } }").get(0));
+        Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) body(block.get(1)).get(1)).expression;
+        assertEquals(1, assign.depth);
+        assertEquals(0, assign.slot);
+        assertAt(0, 0, (Expr.Variable) assign.value);
+    }
+
+    @Test
+    void returnOutsideAFunctionIsAnError() {
+        resolve("print 1;\nreturn 2;");
+        assertEquals(List.of("[line 2] Error at 'return': Can't return from top-level code."), errors);
+        errors.clear();
+        resolve("def f() { { return 1; } }");
+        assertEquals(List.of(), errors);
+    }
+}
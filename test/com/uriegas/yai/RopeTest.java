@@ -0,0 +1,71 @@
+package com.uriegas.yai;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Rope}s behave like the Strings they replace.
+ */
+class RopeTest {
+    private static final String LONG = "x".repeat(Rope.MIN_LENGTH);
+
+    @Test
+    void shortConcatenationsStayStrings() {
+        CharSequence value = Rope.concat("ab", "cd");
+        assertInstanceOf(String.class, value);
+        assertEquals("abcd", value);
+    }
+
+    @Test
+    void longConcatenationsBecomeRopes() {
+        CharSequence value = Rope.concat(LONG, "y");
+        assertInstanceOf(Rope.class, value);
+        assertEquals(LONG + "y", value.toString());
+        assertEquals(LONG.length() + 1, value.length());
+        assertEquals('y', value.charAt(LONG.length()));
+    }
+
+    @Test
+    void sharedPrefixesKeepTheirOwnCharacters() {
+        CharSequence base = Rope.concat(LONG, "a");
+        CharSequence first = Rope.concat(base, "b"); //Appends in place
+        CharSequence second = Rope.concat(base, "c"); //base no longer owns the end, copies
+        CharSequence third = Rope.concat(first, "d");
+        assertEquals(LONG + "a", base.toString());
+        assertEquals(LONG + "ab", first.toString());
+        assertEquals(LONG + "ac", second.toString());
+        assertEquals(LONG + "abd", third.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> base.charAt(LONG.length() + 1));
+    }
+
+    @Test
+    void ropesConcatenateWithThemselvesAndEachOther() {
+        CharSequence rope = Rope.concat(LONG, "a");
+        assertEquals(LONG + "a" + LONG + "a", Rope.concat(rope, rope).toString());
+        CharSequence other = Rope.concat("b", LONG);
+        assertEquals("b" + LONG + LONG + "a", Rope.concat(other, rope).toString());
+        assertEquals(LONG + "a" + "b" + LONG, Rope.concat(rope, other).toString());
+    }
+
+    @Test
+    void appendingInPlaceIsChargedForTheAppendedCharacters() {
+        CharSequence rope = Rope.concat(LONG, "a");
+        assertEquals(4 * 3, Rope.bytes(rope, "bcd"));
+        assertEquals(Memory.string(4), Rope.bytes("ab", "cd"));
+        assertEquals(Memory.string(2 * (LONG.length() + 1)), Rope.bytes(LONG, "a"));
+    }
+
+    @Test
+    void scriptsSeeRopesAsStrings() {
+        String source = "var s = \"\"; var i = 0; while (i < 1000) { s = s + \"ab\"; i = i + 1; }\n"
+                + "var t = s; s = s + \"!\"; t = t + \"?\";\n"
+                + "var u = \"\"; i = 0; while (i < 500) { u = u + \"abab\"; i = i + 1; }\n"
+                + "print s == u + \"!\"; print t == u + \"?\"; print s != t; print s + t == s + t;";
+        for (boolean vm : new boolean[] {false, true}) {
+            List<String> lines = new ArrayList<>();
+            assertEquals(Context.Status.OK, new Engine(vm, 0).createContext(lines::add, ErrorReporter.printingTo(System.err)).eval(source));
+            assertEquals(List.of("true", "true", "true", "true"), lines);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Requests sent to a {@link Server} over its socket.
+ */
+class ServerTest {
+    @TempDir
+    static Path dir;
+    private static Path socket;
+
+    @BeforeAll
+    static void start() throws InterruptedException {
+        socket = dir.resolve("yai.sock");
+        Thread server = new Thread(() -> {
+            try {
+                new Server(new Engine(false), socket).serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        while (true) { //Until it listens, the socket file appears a moment before
+            try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Sends a request and reads the response.
+     * @param length the path length the request claims
+     * @param path
+     * @return the output and errors the server sent, then the exit status.
+     */
+    private static String request(int length, byte[] path) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeInt(length);
+            request.write(path);
+            request.flush();
+            DataInputStream frames = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            StringBuilder response = new StringBuilder();
+            while (true) {
+                int kind = frames.readByte();
+                int size = frames.readInt();
+                if (kind == Server.EXIT)
+                    return response.append("exit ").append(size).toString();
+                byte[] bytes = new byte[size];
+                frames.readFully(bytes);
+                response.append(kind == Server.ERR ? "err " : "out ").append(new String(bytes, StandardCharsets.UTF_8).trim()).append('\n');
+            }
+        }
+    }
+
+    private static String run(Path script) throws IOException {
+        byte[] path = script.toString().getBytes(StandardCharsets.UTF_8);
+        return request(path.length, path);
+    }
+
+    @Test
+    void runsAScript() throws IOException {
+        Path script = Files.writeString(dir.resolve("script.yai"), "print 1 + 2;");
+        assertEquals("out 3\nexit 0", run(script));
+    }
+
+    @Test
+    void rejectsNegativeAndHugeLengths() throws IOException {
+        assertEquals("err Invalid request: a path of -1 bytes.\nexit 1", request(-1, new byte[0]));
+        assertEquals("err Invalid request: a path of 2147483647 bytes.\nexit 1", request(Integer.MAX_VALUE, new byte[0]));
+        assertEquals("err Invalid request: a path of 0 bytes.\nexit 1", request(0, new byte[0]));
+        Path script = Files.writeString(dir.resolve("after.yai"), "print \"still serving\";");
+        assertEquals("out still serving\nexit 0", run(script));
+    }
+
+    @Test
+    void rejectsInvalidPaths() throws IOException {
+        String response = request(3, new byte[] {'a', 0, 'b'});
+        assertTrue(response.startsWith("err Invalid request: "), response);
+        assertTrue(response.endsWith("exit 1"), response);
+    }
+}
@@ -0,0 +1,55 @@
+package com.uriegas.yai;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Scripts run on the {@link VM}, from source and from .yaic files.
+ */
+class VMTest {
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(int line, String message) {
+            errors.add("[line " + line + "] " + message);
+        }
+    };
+
+    private List<String> run(String source) {
+        Engine engine = new Engine(true);
+        assertEquals(Context.Status.OK, engine.createContext(lines::add, reporter).eval(source), errors::toString);
+        return lines;
+    }
+
+    @Test
+    void globalNamedLikeAnEarlierStringLiteral() {
+        assertEquals(List.of("x", "5"), run("print \"x\"; var x = 5; def f() { return x; } print f();"));
+    }
+
+    @Test
+    void globalNamedLikeALaterStringLiteral() {
+        assertEquals(List.of("x", "5"), run("def f() { return x; } print \"x\"; var x = 5; print f();"));
+    }
+
+    @Test
+    void globalNamedLikeAStringLiteralLoadedFromYaic(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("script.yaic");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            new Engine(false, 0).prepare("print \"x\"; var x = 5; def f() { return x; } print f();", reporter).write(out);
+        }
+        Engine engine = new Engine(true);
+        Program program = engine.load(file, reporter);
+        assertEquals(Context.Status.OK, engine.createContext(lines::add, reporter).eval(program), errors::toString);
+        assertEquals(List.of("x", "5"), lines);
+    }
+}